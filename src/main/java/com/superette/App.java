@@ -1,6 +1,9 @@
 package com.superette;
 
 import com.superette.db.Database;
+import com.superette.repo.SaleRepo;
+import com.superette.service.CatalogCache;
+import com.superette.service.StockReservations;
 import com.superette.ui.CashRegisterController;
 import com.superette.ui.ProductsController;
 import com.superette.ui.SalesHistoryController;
@@ -8,7 +11,10 @@ import com.superette.ui.SettingsController;
 import com.superette.ui.StockEntryController;
 
 import javafx.application.Application;
+import javafx.concurrent.Task;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.stage.Stage;
@@ -61,10 +67,54 @@ public class App extends Application {
         stage.setTitle("Superette POS");
         stage.setScene(new Scene(tabs, 1200, 800));
         stage.show();
+        if (sales.offerCartRestore())
+            tabs.getSelectionModel().select(salesTab);
+        replayJournal(products);
+    }
+
+    // Sales confirmed but not committed before the last exit. Applied in the
+    // background: a database locked by another register must not hold up the
+    // window. Records that cannot be applied are set aside and reported here.
+    private void replayJournal(ProductsController products) {
+        SaleRepo repo = new SaleRepo();
+        Task<Integer> task = new Task<>() {
+            @Override
+            protected Integer call() {
+                int before = repo.deadLetterCount();
+                repo.replayJournal();
+                return repo.deadLetterCount() - before;
+            }
+        };
+        task.setOnSucceeded(ev -> {
+            products.refresh();
+            if (task.getValue() > 0)
+                alert("Sales set aside", task.getValue() + " sale(s) confirmed before the last exit could not be "
+                        + "saved to the database. They were kept in sale_dead_letter; stock was not taken for them.");
+        });
+        task.setOnFailed(ev -> alert("Sales not replayed", "Sales confirmed before the last exit were not saved "
+                + "yet; they stay in the sale journal.\n\n" + task.getException().getMessage()));
+        Thread t = new Thread(task, "journal-replay");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void alert(String title, String msg) {
+        Alert a = new Alert(Alert.AlertType.WARNING, msg, ButtonType.OK);
+        a.setHeaderText(title);
+        a.showAndWait();
+    }
+
+    @Override
+    public void stop() {
+        StockReservations.get().stopSweeper();
+        CatalogCache.get().stopSync();
+        Database.shutdown();
     }
 
     public static void main(String[] args) {
         Database.init("data/superette.db");
+        StockReservations.get().startSweeper();
+        CatalogCache.get().startSync();
         launch(args);
     }
 }
@@ -0,0 +1,217 @@
+package com.superette.db;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// The register's open cart, mirrored to a small memory-mapped ring file so it
+// survives a crash or power cut. Every change is one fixed-size record
+// (sequence, product id, absolute quantity) written to slot seq % slots and
+// forced, which costs a single page write per scan.
+//
+// A marker record says "the cart is the N records just before me"; clearing
+// the cart writes a marker with N = 0. Before the records since the last
+// marker could fill half the ring, the cart is written out again followed by a
+// new marker, so the newest complete marker and everything after it are never
+// overwritten. Restoring finds the newest marker whose N records are intact
+// and replays the records after it up to the first gap.
+//
+// Opening does not bring the recovered cart back by itself: the journal's cart
+// starts empty and gets the lines the register actually restores, through
+// set(). The first change writes that cart out in full, so lines left out
+// (declined, no longer sold, out of stock) are not resurrected by a later
+// crash; until then the file still holds the recovered cart.
+//
+// Layout: header [int magic][int format][int slots][int 0], then slots of
+// [int crc of the rest][long seq][int product id or -1 for a marker][double qty or N].
+public final class CartJournal implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CartJournal.class);
+    public static final int DEFAULT_SLOTS = 4096; // 96 KiB
+    private static final int MAGIC = 0x434A4E4C; // "CJNL"
+    private static final int FORMAT = 1;
+    private static final int HEADER = 16;
+    private static final int SLOT = 24;
+    private static final int MARKER = -1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buf;
+    private final int slots;
+    private final Map<Integer, Double> recovered;
+    private final Map<Integer, Double> cart = new LinkedHashMap<>();
+    private long nextSeq = 1;
+    private int live; // records since (and including) the last marker's snapshot
+    private boolean rewritten; // the file holds this cart, not the recovered one
+
+    private CartJournal(FileChannel channel, MappedByteBuffer buf, int slots) {
+        this.channel = channel;
+        this.buf = buf;
+        this.slots = slots;
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC || buf.getInt(8) != slots) {
+            // New file (or resized): start empty
+            for (int i = HEADER; i < buf.capacity(); i++)
+                buf.put(i, (byte) 0);
+            buf.putInt(0, MAGIC).putInt(4, FORMAT).putInt(8, slots).putInt(12, 0);
+            buf.force();
+        } else if (buf.getInt(4) != FORMAT) {
+            throw new IllegalStateException("Unsupported cart journal format " + buf.getInt(4));
+        }
+        recovered = scan();
+    }
+
+    public static CartJournal open(Path file, int slots) throws IOException {
+        if (slots < 8)
+            throw new IllegalArgumentException("Cart journal needs at least 8 slots");
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new CartJournal(ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) slots * SLOT),
+                    slots);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // The cart as it was when the file was last written (product id -> qty, in
+    // scan order); empty when it had been cleared
+    public Map<Integer, Double> recovered() {
+        return recovered;
+    }
+
+    // The cart now holds qty of the product (0 = line removed)
+    public synchronized void set(int productId, double qty) {
+        if (qty > 0)
+            cart.put(productId, qty);
+        else
+            cart.remove(productId);
+        if (!rewritten || live + 1 > slots / 2)
+            checkpoint();
+        else
+            write(productId, qty);
+    }
+
+    public synchronized void clear() {
+        cart.clear();
+        checkpoint();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void checkpoint() {
+        if (cart.size() + 1 > slots / 2) {
+            // Cannot happen with real carts; keep the last good copy rather than tear it
+            log.warn("Cart of {} lines is too large for the cart journal", cart.size());
+            return;
+        }
+        for (Map.Entry<Integer, Double> e : cart.entrySet())
+            put(e.getKey(), e.getValue());
+        put(MARKER, cart.size());
+        force(cart.size() + 1);
+        live = cart.size() + 1;
+        rewritten = true;
+    }
+
+    private void write(int productId, double qty) {
+        put(productId, qty);
+        force(1);
+        live++;
+    }
+
+    private void put(int productId, double qty) {
+        long seq = nextSeq++;
+        int at = offset(seq);
+        buf.putLong(at + 4, seq).putInt(at + 12, productId).putDouble(at + 16, qty);
+        buf.putInt(at, crc(at));
+    }
+
+    // Forces the last n records written (they may wrap around the ring)
+    private void force(int n) {
+        long first = nextSeq - n;
+        int from = offset(first);
+        int to = offset(nextSeq - 1) + SLOT;
+        if (to > from) {
+            buf.force(from, to - from);
+        } else {
+            buf.force(from, buf.capacity() - from);
+            buf.force(HEADER, to - HEADER);
+        }
+    }
+
+    private Map<Integer, Double> scan() {
+        Map<Long, Integer> bySeq = new HashMap<>();
+        long maxSeq = 0;
+        for (int i = 0; i < slots; i++) {
+            int at = HEADER + i * SLOT;
+            long seq = buf.getLong(at + 4);
+            if (seq <= 0 || offset(seq) != at || buf.getInt(at) != crc(at))
+                continue;
+            bySeq.put(seq, at);
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        nextSeq = maxSeq + 1;
+        for (long m = maxSeq; m > 0 && m > maxSeq - slots; m--) {
+            Integer at = bySeq.get(m);
+            if (at == null || buf.getInt(at + 12) != MARKER)
+                continue;
+            long n = (long) buf.getDouble(at + 16);
+            Map<Integer, Double> out = new LinkedHashMap<>();
+            boolean complete = true;
+            for (long s = m - n; s < m; s++) {
+                Integer rec = bySeq.get(s);
+                if (rec == null || buf.getInt(rec + 12) == MARKER) {
+                    complete = false;
+                    break;
+                }
+                apply(out, rec);
+            }
+            if (!complete)
+                continue;
+            for (long s = m + 1; s <= maxSeq; s++) {
+                Integer rec = bySeq.get(s);
+                if (rec == null)
+                    break;
+                if (buf.getInt(rec + 12) == MARKER)
+                    continue; // an unfinished checkpoint repeats what is already applied
+                apply(out, rec);
+            }
+            return out;
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private void apply(Map<Integer, Double> out, int at) {
+        double qty = buf.getDouble(at + 16);
+        if (qty > 0)
+            out.put(buf.getInt(at + 12), qty);
+        else
+            out.remove(buf.getInt(at + 12));
+    }
+
+    private int offset(long seq) {
+        return HEADER + (int) (seq % slots) * SLOT;
+    }
+
+    private int crc(int at) {
+        CRC32 crc = new CRC32();
+        for (int i = at + 4; i < at + SLOT; i++)
+            crc.update(buf.get(i));
+        return (int) crc.getValue();
+    }
+}
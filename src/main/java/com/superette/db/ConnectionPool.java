@@ -0,0 +1,92 @@
+package com.superette.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Small bounded pool: connections are opened lazily up to maxSize and kept
+// open for the lifetime of the application.
+final class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final Properties props;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final BlockingQueue<PooledConnection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    ConnectionPool(String url, Properties props, int maxSize, long borrowTimeoutMs) {
+        this.url = url;
+        this.props = props;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    Connection borrow() throws SQLException {
+        if (closed)
+            throw new SQLException("Connection pool is closed");
+        PooledConnection pc = idle.poll();
+        if (pc == null && opened.incrementAndGet() <= maxSize) {
+            try {
+                pc = open();
+            } catch (SQLException e) {
+                opened.decrementAndGet();
+                throw e;
+            }
+        } else if (pc == null) {
+            opened.decrementAndGet();
+            try {
+                pc = idle.poll(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            if (pc == null)
+                throw new SQLException("No database connection available after " + borrowTimeoutMs + " ms");
+        }
+        return pc.lease();
+    }
+
+    // Opens a connection outside the pool's accounting (e.g. for a dedicated thread)
+    Connection openPhysical() throws SQLException {
+        return DriverManager.getConnection(url, props);
+    }
+
+    void release(PooledConnection pc) {
+        if (closed) {
+            pc.closePhysical();
+            return;
+        }
+        try {
+            pc.reset();
+        } catch (SQLException e) {
+            discard(pc);
+            return;
+        }
+        if (!idle.offer(pc))
+            discard(pc);
+    }
+
+    private PooledConnection open() throws SQLException {
+        return new PooledConnection(openPhysical(), this);
+    }
+
+    private void discard(PooledConnection pc) {
+        pc.closePhysical();
+        opened.decrementAndGet();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.poll()) != null)
+            discard(pc);
+    }
+}
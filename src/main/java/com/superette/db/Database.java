@@ -1,50 +1,209 @@
 package com.superette.db;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Scanner;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import org.sqlite.SQLiteConfig;
 
 public class Database {
-    private static String url;
+    private static final int POOL_SIZE = 5; // one is held by the writer thread
+    private static final long BORROW_TIMEOUT_MS = 10_000;
+    private static final int BUSY_TIMEOUT_MS = 5_000;
+    private static final int CACHE_SIZE_KIB = 8 * 1024;
+    private static final Pattern REGISTER_ID = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private static ConnectionPool pool;
+    private static WriteQueue writer;
+    private static SaleJournal journal;
+    private static CartJournal cartJournal;
+    private static String registerId = "1";
+    private static volatile boolean shared;
+    private static final List<Runnable> initHooks = new CopyOnWriteArrayList<>();
 
+    // Register id comes from -Dsuperette.register (default "1"); give each till
+    // sharing a database file its own id
     public static void init(String dbPath) {
+        init(dbPath, System.getProperty("superette.register", "1"));
+    }
+
+    public static synchronized void init(String dbPath, String register) {
+        if (register == null || !REGISTER_ID.matcher(register).matches())
+            throw new IllegalArgumentException("Invalid register id: " + register);
         try {
             Path p = Paths.get(dbPath);
             if (p.getParent() != null) {
                 Files.createDirectories(p.getParent());
             }
-            url = "jdbc:sqlite:" + p.toString();
+            shutdown();
+            pool = new ConnectionPool("jdbc:sqlite:" + p.toString(), config().toProperties(),
+                    POOL_SIZE, BORROW_TIMEOUT_MS);
             try (Connection conn = getConnection()) {
-                String schema = readResource("/schema.sql");
-                try (Statement st = conn.createStatement()) {
-                    st.executeUpdate(schema);
+                Migrations.migrate(conn);
+                // Make this register known to the others sharing the file (see isShared)
+                try (PreparedStatement ps = prepare(conn,
+                        "INSERT OR IGNORE INTO register_sequence(register_id, last_seq) VALUES(?, 0)")) {
+                    ps.setString(1, register);
+                    ps.executeUpdate();
                 }
             }
+            shared = false;
+            for (Runnable hook : initHooks)
+                hook.run();
+            writer = new WriteQueue(pool.borrow());
+            // One journal per register; register 1 keeps the single-till file name
+            String suffix = register.equals("1") ? "" : "-" + register;
+            journal = SaleJournal.open(p.resolveSibling(p.getFileName() + "-sales" + suffix + ".journal"),
+                    SaleJournal.DEFAULT_CAPACITY);
+            cartJournal = CartJournal.open(p.resolveSibling(p.getFileName() + "-cart" + suffix + ".ring"),
+                    CartJournal.DEFAULT_SLOTS);
+            registerId = register;
         } catch (IOException | SQLException e) {
             throw new RuntimeException("Init DB failed", e);
         }
     }
 
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url);
+    // Run by every later init once the new file is migrated, for layers above
+    // that hold data read from the previous one
+    public static void onInit(Runnable hook) {
+        initHooks.add(hook);
     }
 
-    private static String readResource(String path) throws IOException {
-        try (InputStream in = Database.class.getResourceAsStream(path)) {
-            if (in == null)
-                throw new IOException("Resource not found: " + path);
-            try (Scanner s = new Scanner(in, StandardCharsets.UTF_8)) {
-                s.useDelimiter("\\A");
-                return s.hasNext() ? s.next() : "";
+    // The register (till) this process is, stamped on every sale it records
+    public static String registerId() {
+        return registerId;
+    }
+
+    // True once another register has used this database file. Stock reservations
+    // only see this register's carts, so from then on checkout must not trust
+    // them instead of the stock in the database. Stays true once seen.
+    public static boolean isShared() {
+        if (shared)
+            return true;
+        try (Connection conn = getConnection();
+                PreparedStatement ps = prepare(conn,
+                        "SELECT EXISTS(SELECT 1 FROM register_sequence WHERE register_id <> ?)")) {
+            ps.setString(1, registerId);
+            try (ResultSet rs = ps.executeQuery()) {
+                shared = rs.next() && rs.getInt(1) == 1;
             }
+        } catch (SQLException e) {
+            throw new RuntimeException("isShared failed", e);
+        }
+        return shared;
+    }
+
+    // Borrows a pooled connection; close() hands it back to the pool
+    public static Connection getConnection() throws SQLException {
+        ConnectionPool p = pool;
+        if (p == null)
+            throw new SQLException("Database not initialised");
+        return p.borrow();
+    }
+
+    // Cached prepared statement for the given pooled connection; use instead of
+    // conn.prepareStatement. Closing the statement returns it to the cache.
+    public static PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        return prepare(conn, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public static PreparedStatement prepare(Connection conn, String sql, int autoGeneratedKeys)
+            throws SQLException {
+        StatementCache cache = PooledConnection.statementsOf(conn);
+        if (cache == null)
+            return conn.prepareStatement(sql, autoGeneratedKeys);
+        return cache.prepare(sql, autoGeneratedKeys);
+    }
+
+    // Single writer thread used for sales, stock receipts and other hot writes
+    public static WriteQueue writer() {
+        WriteQueue w = writer;
+        if (w == null)
+            throw new IllegalStateException("Database not initialised");
+        return w;
+    }
+
+    // Sales confirmed ahead of their commit (see SaleJournal); lives next to the DB file
+    public static SaleJournal journal() {
+        SaleJournal j = journal;
+        if (j == null)
+            throw new IllegalStateException("Database not initialised");
+        return j;
+    }
+
+    // This register's open cart, kept across crashes (see CartJournal)
+    public static CartJournal cartJournal() {
+        CartJournal j = cartJournal;
+        if (j == null)
+            throw new IllegalStateException("Database not initialised");
+        return j;
+    }
+
+    // Runs a write job on the writer thread and waits for its commit. Runtime
+    // exceptions thrown by the job (validation errors) are rethrown unchanged.
+    public static <T> T write(WriteQueue.Job<T> job) throws SQLException {
+        try {
+            return writer().submit(job).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new SQLException(cause);
         }
     }
+
+    // SQLITE_BUSY or SQLITE_LOCKED (any extended code): another connection holds
+    // the lock, so the same statement may succeed if tried again
+    public static boolean isBusy(SQLException e) {
+        int primary = e.getErrorCode() & 0xff;
+        return primary == 5 || primary == 6;
+    }
+
+    public static synchronized void shutdown() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (cartJournal != null) {
+            cartJournal.close();
+            cartJournal = null;
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    // Applied once per physical connection when it is opened
+    private static SQLiteConfig config() {
+        SQLiteConfig cfg = new SQLiteConfig();
+        cfg.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        cfg.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        cfg.setBusyTimeout(BUSY_TIMEOUT_MS);
+        // Take the write lock when the transaction starts, not at its first write:
+        // a deferred transaction that reads first cannot wait for the lock once
+        // another register has written and fails with SQLITE_BUSY instead
+        cfg.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        cfg.setCacheSize(-CACHE_SIZE_KIB); // negative = size in KiB
+        cfg.enforceForeignKeys(true); // SQLite ignores REFERENCES unless asked, per connection
+        return cfg;
+    }
 }
@@ -0,0 +1,129 @@
+package com.superette.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Versioned schema migrations. Scripts live in /db/migration and are applied in
+// the order listed here; append new scripts, never edit or reorder applied ones.
+public final class Migrations {
+    private static final Logger log = LoggerFactory.getLogger(Migrations.class);
+
+    private static final String[] SCRIPTS = {
+            "V1__baseline.sql",
+            "V2__settings.sql",
+            "V3__product_fts.sql",
+            "V4__product_row_version.sql",
+            "V5__product_name_id_index.sql",
+            "V6__sale_journal_seq.sql",
+            "V7__money_millimes.sql",
+            "V8__registers.sql",
+            "V9__parked_carts.sql",
+            "V10__returns.sql",
+            "V11__sale_idempotency_key.sql",
+            "V12__reversal_times.sql",
+            "V13__sale_dead_letter.sql",
+    };
+
+    private Migrations() {
+    }
+
+    public static int latestVersion() {
+        return SCRIPTS.length;
+    }
+
+    // Brings the schema up to date; returns the number of scripts applied
+    public static int migrate(Connection conn) throws SQLException {
+        int current = currentVersion(conn);
+        if (current >= SCRIPTS.length)
+            return 0; // fast path: no DDL at all
+        if (current == 0)
+            createVersionTable(conn);
+        int applied = 0;
+        for (int v = current + 1; v <= SCRIPTS.length; v++) {
+            if (apply(conn, v, SCRIPTS[v - 1]))
+                applied++;
+        }
+        return applied;
+    }
+
+    public static int currentVersion(Connection conn) throws SQLException {
+        try (PreparedStatement ps = Database.prepare(conn,
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'schema_version'");
+                ResultSet rs = ps.executeQuery()) {
+            if (!rs.next())
+                return 0;
+        }
+        try (PreparedStatement ps = Database.prepare(conn, "SELECT COALESCE(MAX(version), 0) FROM schema_version");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void createVersionTable(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INTEGER PRIMARY KEY," +
+                    "name TEXT NOT NULL," +
+                    "applied_at TEXT NOT NULL)");
+        }
+    }
+
+    // False when another register sharing the database applied it first (the
+    // transaction is IMMEDIATE, so the check and the script cannot interleave)
+    private static boolean apply(Connection conn, int version, String name) throws SQLException {
+        String script;
+        try {
+            script = readScript(name);
+        } catch (IOException e) {
+            throw new SQLException("Cannot read migration " + name, e);
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM schema_version WHERE version = ?")) {
+                ps.setInt(1, version);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                }
+            }
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate(script);
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO schema_version(version, name, applied_at) VALUES(?, ?, datetime('now'))")) {
+                ps.setInt(1, version);
+                ps.setString(2, name);
+                ps.executeUpdate();
+            }
+            conn.commit();
+            log.info("Applied schema migration {}", name);
+            return true;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Migration " + name + " failed", e);
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static String readScript(String name) throws IOException {
+        String path = "/db/migration/" + name;
+        try (InputStream in = Migrations.class.getResourceAsStream(path)) {
+            if (in == null)
+                throw new IOException("Resource not found: " + path);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
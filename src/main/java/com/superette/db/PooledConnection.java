@@ -0,0 +1,94 @@
+package com.superette.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// One physical SQLite connection owned by the pool. Callers never see it
+// directly: each borrow hands out a fresh proxy whose close() returns the
+// connection to the pool instead of closing the file.
+final class PooledConnection {
+    private final Connection physical;
+    private final ConnectionPool pool;
+    private final StatementCache statements;
+
+    PooledConnection(Connection physical, ConnectionPool pool) {
+        this.physical = physical;
+        this.pool = pool;
+        this.statements = new StatementCache(physical);
+    }
+
+    // Statement cache of the connection behind a leased handle, or null for
+    // connections that did not come from the pool
+    static StatementCache statementsOf(Connection conn) {
+        if (Proxy.isProxyClass(conn.getClass())
+                && Proxy.getInvocationHandler(conn) instanceof Lease) {
+            Lease lease = (Lease) Proxy.getInvocationHandler(conn);
+            return lease.closed ? null : lease.owner().statements;
+        }
+        return null;
+    }
+
+    Connection lease() {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new Lease());
+    }
+
+    // Puts the connection back into a clean auto-commit state before reuse
+    void reset() throws SQLException {
+        if (!physical.getAutoCommit()) {
+            physical.rollback();
+            physical.setAutoCommit(true);
+        }
+        physical.clearWarnings();
+    }
+
+    void closePhysical() {
+        try {
+            physical.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    private final class Lease implements InvocationHandler {
+        private boolean closed;
+
+        PooledConnection owner() {
+            return PooledConnection.this;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        pool.release(PooledConnection.this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + (closed ? ", closed]" : "]");
+                default:
+                    break;
+            }
+            if (closed)
+                throw new SQLException("Connection already returned to the pool");
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
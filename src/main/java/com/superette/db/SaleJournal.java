@@ -0,0 +1,151 @@
+package com.superette.db;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Append-only journal of completed sales in a memory-mapped file. A sale is
+// durable once its record is written and forced, so the register can confirm
+// it before SQLite commits; records are applied to the database afterwards
+// (and again on startup, which must be idempotent). Each record carries a
+// CRC32 and consecutive sequence numbers, so a torn or stale tail ends the
+// scan. When every record has been applied the file is rewound and reused.
+//
+// Layout: header [int magic][int format][long next seq], then records
+// [int payload length][int crc of seq+payload][long seq][payload], ended by a
+// zero length.
+public final class SaleJournal implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 4 << 20;
+    private static final int MAGIC = 0x534A4E4C; // "SJNL"
+    private static final int FORMAT = 1;
+    private static final int HEADER = 16;
+    private static final int RECORD_HEADER = 16;
+
+    public static final class Record {
+        public final long seq;
+        public final byte[] payload;
+
+        Record(long seq, byte[] payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buf;
+    private final List<Record> recovered;
+    private final Set<Long> unapplied = new HashSet<>();
+    private int position;
+    private long nextSeq;
+
+    private SaleJournal(FileChannel channel, MappedByteBuffer buf) {
+        this.channel = channel;
+        this.buf = buf;
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC) {
+            buf.putInt(0, MAGIC).putInt(4, FORMAT).putLong(8, 1).putInt(HEADER, 0);
+            buf.force(0, HEADER + 4);
+        } else if (buf.getInt(4) != FORMAT) {
+            throw new IllegalStateException("Unsupported sale journal format " + buf.getInt(4));
+        }
+        nextSeq = buf.getLong(8);
+        position = HEADER;
+        recovered = scan();
+        for (Record r : recovered)
+            unapplied.add(r.seq);
+    }
+
+    public static SaleJournal open(Path file, int capacity) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            int size = (int) Math.max(ch.size(), capacity);
+            return new SaleJournal(ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // Records found at open time, oldest first; each stays unapplied until applied() is called
+    public List<Record> recovered() {
+        return recovered;
+    }
+
+    // Writes and forces one record; returns its sequence number, or -1 when the
+    // journal is full (the caller then commits the sale directly)
+    public synchronized long append(byte[] payload) {
+        int end = position + RECORD_HEADER + payload.length;
+        if (end + 4 > buf.capacity())
+            return -1;
+        long seq = nextSeq++;
+        buf.putInt(end, 0); // terminator first, length last: a torn record is never followed
+        buf.putInt(position + 4, crc(seq, payload));
+        buf.putLong(position + 8, seq);
+        buf.put(position + RECORD_HEADER, payload);
+        buf.putInt(position, payload.length);
+        buf.force(position, end + 4 - position);
+        position = end;
+        unapplied.add(seq);
+        return seq;
+    }
+
+    // The record is now in the database; rewinds the file once nothing is pending
+    public synchronized void applied(long seq) {
+        if (!unapplied.remove(seq) || !unapplied.isEmpty() || position == HEADER)
+            return;
+        buf.putLong(8, nextSeq);
+        buf.putInt(HEADER, 0);
+        buf.force(0, HEADER + 4);
+        position = HEADER;
+    }
+
+    public synchronized int pending() {
+        return unapplied.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private List<Record> scan() {
+        List<Record> out = new ArrayList<>();
+        long expected = nextSeq;
+        while (position + RECORD_HEADER <= buf.capacity()) {
+            int len = buf.getInt(position);
+            if (len <= 0 || position + RECORD_HEADER + len + 4 > buf.capacity())
+                break;
+            long seq = buf.getLong(position + 8);
+            byte[] payload = new byte[len];
+            buf.get(position + RECORD_HEADER, payload);
+            if (seq != expected || buf.getInt(position + 4) != crc(seq, payload))
+                break;
+            out.add(new Record(seq, payload));
+            expected++;
+            position += RECORD_HEADER + len;
+        }
+        nextSeq = expected;
+        buf.putInt(position, 0); // drop whatever partial record follows
+        return out;
+    }
+
+    private static int crc(long seq, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < 8; i++)
+            crc.update((int) (seq >>> (8 * i)));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
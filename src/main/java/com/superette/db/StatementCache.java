@@ -0,0 +1,121 @@
+package com.superette.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Prepared statements of one physical connection, keyed by SQL text. Statements
+// handed out here are closed by callers as usual; close() only clears their
+// parameters and makes them available for the next prepare of the same SQL.
+public final class StatementCache {
+    private static final int MAX_STATEMENTS = 64;
+
+    private final Connection conn;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection conn) {
+        this.conn = conn;
+    }
+
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        Entry e = entries.get(key);
+        if (e != null && !e.inUse && e.target.isClosed()) {
+            entries.remove(key);
+            e = null;
+        }
+        if (e != null && !e.inUse) {
+            e.inUse = true;
+            return e.handle;
+        }
+        PreparedStatement ps = conn.prepareStatement(sql, autoGeneratedKeys);
+        if (e != null)
+            return ps; // same SQL already borrowed (nested use): hand out an uncached statement
+        e = new Entry(ps);
+        entries.put(key, e);
+        evictOverflow();
+        e.inUse = true;
+        return e.handle;
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > MAX_STATEMENTS && it.hasNext()) {
+            Entry old = it.next();
+            if (old.inUse) {
+                old.evicted = true; // closed for real when the borrower releases it
+            } else {
+                old.closeQuietly();
+            }
+            it.remove();
+        }
+    }
+
+    private static final class Entry implements InvocationHandler {
+        private final PreparedStatement target;
+        private final PreparedStatement handle;
+        private boolean inUse;
+        private boolean evicted;
+
+        Entry(PreparedStatement target) {
+            this.target = target;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    return !inUse || target.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() {
+            if (!inUse)
+                return;
+            inUse = false;
+            if (evicted) {
+                closeQuietly();
+                return;
+            }
+            try {
+                target.clearParameters();
+                target.clearBatch();
+            } catch (SQLException e) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                target.close();
+            } catch (SQLException ignore) {
+            }
+        }
+    }
+}
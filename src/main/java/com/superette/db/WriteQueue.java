@@ -0,0 +1,230 @@
+package com.superette.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Single writer thread for the database. Jobs that arrive within a few
+// milliseconds of each other are run in one transaction (group commit); each
+// job runs inside its own savepoint so a failing job does not undo the others.
+// Transactions start with BEGIN IMMEDIATE, so when another register holds the
+// write lock the batch fails up front and is retried a few times after a short
+// random backoff instead of waiting out one long busy timeout.
+public final class WriteQueue implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WriteQueue.class);
+    private static final long GROUP_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(3);
+    private static final int MAX_BATCH = 64;
+    static final int BUSY_TIMEOUT_MS = 250; // per attempt, set on the writer's connection
+    static final int MAX_BUSY_RETRIES = 6;
+    private static final long BACKOFF_BASE_MS = 10;
+    private static final long BACKOFF_MAX_MS = 200;
+
+    @FunctionalInterface
+    public interface Job<T> {
+        // Runs inside the writer's transaction; must not commit or roll back itself.
+        // May run again if the database was busy, so side effects belong after the commit.
+        T run(Connection conn) throws SQLException;
+    }
+
+    private static final class Pending<T> {
+        final Job<T> job;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Throwable error;
+
+        Pending(Job<T> job) {
+            this.job = job;
+        }
+
+        void complete() {
+            if (error != null)
+                future.completeExceptionally(error);
+            else
+                future.complete(result);
+        }
+    }
+
+    private static final Pending<Void> STOP = new Pending<>(conn -> null);
+
+    private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    private final Connection conn;
+    private final Thread thread;
+    private volatile boolean closed;
+    volatile Runnable onBusyRetry; // test hook: runs on the writer thread before each busy backoff
+
+    WriteQueue(Connection conn) throws SQLException {
+        this.conn = conn;
+        try (Statement st = conn.createStatement()) {
+            st.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+        }
+        this.thread = new Thread(this::loop, "db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public <T> CompletableFuture<T> submit(Job<T> job) {
+        Pending<T> p = new Pending<>(job);
+        if (closed) {
+            p.future.completeExceptionally(new SQLException("Write queue is closed"));
+        } else if (Thread.currentThread() == thread) {
+            // Re-entrant submit from a running job: execute inline in the same transaction
+            try {
+                p.result = job.run(conn);
+            } catch (Throwable t) {
+                p.error = t;
+            }
+            p.complete();
+        } else {
+            queue.add(p);
+        }
+        return p.future;
+    }
+
+    private void loop() {
+        List<Pending<?>> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Pending<?> first = queue.take();
+                if (first == STOP)
+                    break;
+                batch.add(first);
+                long deadline = System.nanoTime() + GROUP_WINDOW_NANOS;
+                while (batch.size() < MAX_BATCH) {
+                    long wait = deadline - System.nanoTime();
+                    Pending<?> next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null)
+                        break;
+                    if (next == STOP) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            if (!batch.isEmpty()) {
+                runBatch(batch);
+                batch.clear();
+            }
+        }
+        // Fail whatever is still queued after shutdown
+        Pending<?> p;
+        while ((p = queue.poll()) != null) {
+            if (p != STOP)
+                p.future.completeExceptionally(new SQLException("Write queue is closed"));
+        }
+    }
+
+    private void runBatch(List<Pending<?>> batch) {
+        for (int attempt = 0;; attempt++) {
+            SQLException e = tryBatch(batch);
+            if (e == null)
+                break;
+            if (!Database.isBusy(e) || attempt == MAX_BUSY_RETRIES) {
+                log.warn("Group commit of {} write(s) failed", batch.size(), e);
+                for (Pending<?> p : batch) {
+                    if (p.error == null)
+                        p.error = e;
+                }
+                break;
+            }
+            Runnable hook = onBusyRetry;
+            if (hook != null)
+                hook.run();
+            if (!sleep(backoffMillis(attempt))) {
+                for (Pending<?> p : batch)
+                    p.error = e;
+                break;
+            }
+            for (Pending<?> p : batch) {
+                p.result = null;
+                p.error = null;
+            }
+        }
+        for (Pending<?> p : batch)
+            p.complete();
+    }
+
+    // Runs the batch in one transaction; returns the failure that rolled it back, if any
+    private SQLException tryBatch(List<Pending<?>> batch) {
+        try {
+            conn.setAutoCommit(false);
+            for (Pending<?> p : batch)
+                runInSavepoint(p);
+            conn.commit();
+            return null;
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ignore) {
+            }
+            return e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignore) {
+            }
+        }
+    }
+
+    private <T> void runInSavepoint(Pending<T> p) throws SQLException {
+        Savepoint sp = conn.setSavepoint();
+        try {
+            p.result = p.job.run(conn);
+            conn.releaseSavepoint(sp);
+        } catch (Throwable t) {
+            conn.rollback(sp);
+            conn.releaseSavepoint(sp);
+            // A busy database is not the job's fault: retry the whole batch
+            if (t instanceof SQLException && Database.isBusy((SQLException) t))
+                throw (SQLException) t;
+            p.error = t;
+        }
+    }
+
+    // Exponential with jitter, so registers that collided do not retry in step
+    static long backoffMillis(int attempt) {
+        long cap = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << attempt);
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        queue.add(STOP);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            conn.close();
+        } catch (SQLException ignore) {
+        }
+    }
+}
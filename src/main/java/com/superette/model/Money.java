@@ -0,0 +1,87 @@
+package com.superette.model;
+
+import java.math.RoundingMode;
+
+// Amounts of money as a long count of millimes (1 TND = 1000 millimes).
+// Static helpers only, so totals are plain long arithmetic with no boxing or
+// allocation. Doubles only appear at the edges (product prices, REAL
+// columns) and are converted once, with the rounding stated by the caller.
+public final class Money {
+    public static final long PER_UNIT = 1000;
+    private static final long QTY_SCALE = 1_000_000; // quantities are stored to 6 places
+
+    private Money() {
+    }
+
+    // Nearest millime, halves away from zero
+    public static long of(double amount) {
+        long m = Math.round(Math.abs(amount) * PER_UNIT);
+        return amount < 0 ? -m : m;
+    }
+
+    public static double toDouble(long millimes) {
+        return millimes / (double) PER_UNIT;
+    }
+
+    // unit x qty for a (possibly fractional) quantity, rounded once at the end
+    public static long times(long unit, double qty, RoundingMode mode) {
+        long q = Math.round(qty * QTY_SCALE);
+        return divide(Math.multiplyExact(unit, q), QTY_SCALE, mode);
+    }
+
+    // num / den (den > 0) rounded to a whole millime
+    public static long divide(long num, long den, RoundingMode mode) {
+        long q = num / den;
+        long r = num % den;
+        if (r == 0)
+            return q;
+        int sign = num < 0 ? -1 : 1;
+        long twice = Math.abs(r) * 2;
+        boolean awayFromZero;
+        switch (mode) {
+            case UP:
+                awayFromZero = true;
+                break;
+            case DOWN:
+                awayFromZero = false;
+                break;
+            case CEILING:
+                awayFromZero = sign > 0;
+                break;
+            case FLOOR:
+                awayFromZero = sign < 0;
+                break;
+            case HALF_UP:
+                awayFromZero = twice >= den;
+                break;
+            case HALF_DOWN:
+                awayFromZero = twice > den;
+                break;
+            case HALF_EVEN:
+                awayFromZero = twice > den || (twice == den && (q & 1) != 0);
+                break;
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+        return awayFromZero ? q + sign : q;
+    }
+
+    // 1234 -> "1.234", -5 -> "-0.005"
+    public static String format(long millimes) {
+        StringBuilder sb = new StringBuilder(16);
+        if (millimes < 0)
+            sb.append('-');
+        long abs = Math.abs(millimes);
+        long frac = abs % PER_UNIT;
+        sb.append(abs / PER_UNIT).append('.');
+        if (frac < 100)
+            sb.append('0');
+        if (frac < 10)
+            sb.append('0');
+        return sb.append(frac).toString();
+    }
+
+    public static String format(String currency, long millimes) {
+        return currency + " " + format(millimes);
+    }
+}
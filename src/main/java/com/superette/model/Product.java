@@ -91,4 +91,19 @@ public class Product {
     public void setActive(boolean active) {
         this.active = active;
     }
+
+    public Product copy() {
+        Product p = new Product();
+        p.id = id;
+        p.barcode = barcode;
+        p.name = name;
+        p.categoryId = categoryId;
+        p.priceGross = priceGross;
+        p.vatRate = vatRate;
+        p.stockQty = stockQty;
+        p.reorderThreshold = reorderThreshold;
+        p.costPrice = costPrice;
+        p.active = active;
+        return p;
+    }
 }
@@ -0,0 +1,50 @@
+package com.superette.model;
+
+import java.math.RoundingMode;
+
+// Totals of a cart or sale whose prices include VAT. Each line's gross is
+// rounded half-up to the millime and its VAT is taken out of that rounded
+// gross, so the lines always add up to the totals printed and stored. One
+// instance can be reset and reused; adding lines does not allocate.
+public final class VatCalculator {
+    private static final long RATE_SCALE = 10_000; // rates in hundredths of a percent
+
+    private long gross;
+    private long vat;
+
+    public VatCalculator reset() {
+        gross = 0;
+        vat = 0;
+        return this;
+    }
+
+    // Adds one line and returns its gross
+    public long add(long unitGross, double qty, double vatRate) {
+        long line = lineGross(unitGross, qty);
+        gross += line;
+        vat += vatIncluded(line, vatRate);
+        return line;
+    }
+
+    public long gross() {
+        return gross;
+    }
+
+    public long vat() {
+        return vat;
+    }
+
+    public long net() {
+        return gross - vat;
+    }
+
+    public static long lineGross(long unitGross, double qty) {
+        return Money.times(unitGross, qty, RoundingMode.HALF_UP);
+    }
+
+    // VAT contained in a VAT-inclusive amount: gross - gross / (1 + rate)
+    public static long vatIncluded(long gross, double vatRate) {
+        long rate = Math.round(vatRate * 100);
+        return gross - Money.divide(gross * RATE_SCALE, RATE_SCALE + rate, RoundingMode.HALF_UP);
+    }
+}
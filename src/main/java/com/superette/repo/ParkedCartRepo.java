@@ -0,0 +1,143 @@
+package com.superette.repo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.superette.db.Database;
+
+// Carts parked at a register so the next customer can be served. Only product
+// ids and quantities are kept; resuming a cart takes it off the list in the
+// same transaction, so two registers can never resume the same one.
+public class ParkedCartRepo {
+
+    public static class ParkedLine {
+        public final int productId;
+        public final double qty;
+
+        public ParkedLine(int productId, double qty) {
+            this.productId = productId;
+            this.qty = qty;
+        }
+    }
+
+    public static class ParkedCart {
+        public final int id;
+        public final String registerId;
+        public final String parkedAt;
+        public final String label;
+        public final int itemCount;
+        public final long totalGrossMillimes; // at the prices of the time it was parked
+
+        public ParkedCart(int id, String registerId, String parkedAt, String label, int itemCount,
+                long totalGrossMillimes) {
+            this.id = id;
+            this.registerId = registerId;
+            this.parkedAt = parkedAt;
+            this.label = label;
+            this.itemCount = itemCount;
+            this.totalGrossMillimes = totalGrossMillimes;
+        }
+    }
+
+    // Returns the new parked cart's id
+    public int park(String label, List<ParkedLine> lines, long totalGrossMillimes) {
+        if (lines == null || lines.isEmpty())
+            throw new IllegalArgumentException("Cart is empty");
+        Map<Integer, Double> qty = new LinkedHashMap<>();
+        for (ParkedLine l : lines)
+            qty.merge(l.productId, l.qty, Double::sum);
+        String sql = "INSERT INTO parked_cart(register_id, parked_at, label, item_count, total_gross_mil, lines) " +
+                "VALUES(?, datetime('now'), ?, ?, ?, ?)";
+        try {
+            return Database.write(conn -> {
+                try (PreparedStatement ps = Database.prepare(conn, sql)) {
+                    ps.setString(1, Database.registerId());
+                    ps.setString(2, label == null || label.isBlank() ? null : label.trim());
+                    ps.setInt(3, qty.size());
+                    ps.setLong(4, totalGrossMillimes);
+                    ps.setString(5, SaleRepo.quantitiesJson(qty));
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = Database.prepare(conn, "SELECT last_insert_rowid()");
+                        ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("park cart failed", e);
+        }
+    }
+
+    // Every parked cart, oldest first; any register may resume any of them
+    public List<ParkedCart> list() {
+        String sql = "SELECT id, register_id, parked_at, label, item_count, total_gross_mil " +
+                "FROM parked_cart ORDER BY id";
+        List<ParkedCart> out = new ArrayList<>();
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql);
+                ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                out.add(new ParkedCart(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                        rs.getInt(5), rs.getLong(6)));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("list parked carts failed", e);
+        }
+        return out;
+    }
+
+    public int count() {
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, "SELECT COUNT(*) FROM parked_cart");
+                ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new RuntimeException("count parked carts failed", e);
+        }
+    }
+
+    // Removes the parked cart and returns its lines in scan order, or null when
+    // it is gone (another register resumed or discarded it first)
+    public List<ParkedLine> take(int id) {
+        String lines = "SELECT json_extract(j.value, '$[0]'), json_extract(j.value, '$[1]') " +
+                "FROM parked_cart c, json_each(c.lines) j WHERE c.id = ? ORDER BY j.key";
+        try {
+            return Database.write(conn -> {
+                List<ParkedLine> out = new ArrayList<>();
+                try (PreparedStatement ps = Database.prepare(conn, lines)) {
+                    ps.setInt(1, id);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next())
+                            out.add(new ParkedLine(rs.getInt(1), rs.getDouble(2)));
+                    }
+                }
+                return delete(conn, id) ? out : null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("resume parked cart failed", e);
+        }
+    }
+
+    public boolean discard(int id) {
+        try {
+            return Database.write(conn -> delete(conn, id));
+        } catch (SQLException e) {
+            throw new RuntimeException("discard parked cart failed", e);
+        }
+    }
+
+    private static boolean delete(Connection conn, int id) throws SQLException {
+        try (PreparedStatement ps = Database.prepare(conn, "DELETE FROM parked_cart WHERE id = ?")) {
+            ps.setInt(1, id);
+            return ps.executeUpdate() == 1;
+        }
+    }
+}
@@ -4,21 +4,79 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import com.superette.db.Database;
 import com.superette.model.Product;
+import com.superette.service.CatalogCache;
 
 public class ProductRepo {
 
+    // Backend for searchByQuery; -Dsuperette.search=fuzzy|index|fts|like.
+    // FUZZY is INDEX plus a typo-tolerant fallback when the substring search finds nothing.
+    public enum SearchMode {
+        FUZZY, INDEX, FTS, LIKE;
+
+        public static SearchMode configured() {
+            String v = System.getProperty("superette.search", "fuzzy");
+            try {
+                return valueOf(v.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return FUZZY;
+            }
+        }
+    }
+
+    // Products changed after a given row_version, plus the version to ask from next time
+    public static class Changes {
+        public final List<Product> products;
+        public final long version;
+
+        public Changes(List<Product> products, long version) {
+            this.products = products;
+            this.version = version;
+        }
+    }
+
+    // Outcome of upsertBatch
+    public static class UpsertCounts {
+        public final int inserted;
+        public final int updated;
+
+        public UpsertCounts(int inserted, int updated) {
+            this.inserted = inserted;
+            this.updated = updated;
+        }
+    }
+
+    private final SearchMode searchMode;
+
+    public ProductRepo() {
+        this(SearchMode.configured());
+    }
+
+    public ProductRepo(SearchMode searchMode) {
+        this.searchMode = searchMode;
+    }
+
+    public SearchMode searchMode() {
+        return searchMode;
+    }
+
     public List<Product> findAll() {
         List<Product> list = new ArrayList<>();
         String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
                 "reorder_threshold, cost_price, active FROM product ORDER BY name";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql);
+                PreparedStatement ps = Database.prepare(conn, sql);
                 ResultSet rs = ps.executeQuery()) {
             while (rs.next())
                 list.add(map(rs));
@@ -28,11 +86,154 @@ public class ProductRepo {
         return list;
     }
 
+    // Keyset pagination in (name, id) order; after == null starts at the top
+    public List<Product> findPage(Product after, int limit) {
+        String cols = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
+                "reorder_threshold, cost_price, active FROM product ";
+        String sql = after == null
+                ? cols + "ORDER BY name, id LIMIT ?"
+                : cols + "WHERE (name, id) > (?, ?) ORDER BY name, id LIMIT ?";
+        List<Product> list = new ArrayList<>();
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            int i = 1;
+            if (after != null) {
+                ps.setString(i++, after.getName());
+                ps.setInt(i++, after.getId());
+            }
+            ps.setInt(i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    list.add(map(rs));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("findPage failed", e);
+        }
+        return list;
+    }
+
+    // Row at a position in (name, id) order; used to seed a cursor when jumping
+    public Product findAt(int offset) {
+        String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
+                "reorder_threshold, cost_price, active FROM product ORDER BY name, id LIMIT 1 OFFSET ?";
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            ps.setInt(1, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? map(rs) : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("findAt failed", e);
+        }
+    }
+
+    // Position of a product in (name, id) order
+    public int positionOf(Product p) {
+        String sql = "SELECT COUNT(*) FROM product WHERE (name, id) < (?, ?)";
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            ps.setString(1, p.getName());
+            ps.setInt(2, p.getId());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("positionOf failed", e);
+        }
+    }
+
+    public int countAll() {
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, "SELECT COUNT(*) FROM product");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("countAll failed", e);
+        }
+    }
+
+    // Includes inactive products; ordered by change so later rows win
+    public Changes findChangedSince(long version) {
+        List<Product> list = new ArrayList<>();
+        long max = version;
+        String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
+                "reorder_threshold, cost_price, active, row_version FROM product WHERE row_version > ? " +
+                "ORDER BY row_version";
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            ps.setLong(1, version);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(map(rs));
+                    max = Math.max(max, rs.getLong("row_version"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("findChangedSince failed", e);
+        }
+        return new Changes(list, max);
+    }
+
+    public long currentVersion() {
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, "SELECT COALESCE(MAX(row_version), 0) FROM product");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("currentVersion failed", e);
+        }
+    }
+
     public Product findById(int id) {
+        Product cached = CatalogCache.get().findById(id);
+        if (cached != null)
+            return cached;
+        Product p = loadById(id);
+        CatalogCache.get().resolved(p);
+        return p;
+    }
+
+    // Several products at once, e.g. to rebuild a parked cart: served from the
+    // catalog cache, with any the cache does not know loaded in one query.
+    // Ids that do not exist are left out of the map.
+    public Map<Integer, Product> findByIds(Collection<Integer> ids) {
+        Map<Integer, Product> out = new HashMap<>();
+        StringBuilder missing = new StringBuilder("[");
+        for (int id : ids) {
+            Product cached = CatalogCache.get().findById(id);
+            if (cached != null) {
+                out.put(id, cached);
+            } else {
+                if (missing.length() > 1)
+                    missing.append(',');
+                missing.append(id);
+            }
+        }
+        if (missing.length() == 1)
+            return out;
+        String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
+                "reorder_threshold, cost_price, active FROM product WHERE id IN (SELECT value FROM json_each(?))";
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            ps.setString(1, missing.append(']').toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Product p = map(rs);
+                    CatalogCache.get().resolved(p);
+                    out.put(p.getId(), p);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("findByIds failed", e);
+        }
+        return out;
+    }
+
+    private Product loadById(int id) {
         String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
                 "reorder_threshold, cost_price, active FROM product WHERE id = ?";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setInt(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next())
@@ -48,7 +249,7 @@ public class ProductRepo {
         String sql = "INSERT INTO product(barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
                 "reorder_threshold, cost_price, active) VALUES(?,?,?,?,?,?,?,?,?)";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, p.getBarcode());
             ps.setString(2, p.getName());
             if (p.getCategoryId() == null)
@@ -65,9 +266,21 @@ public class ProductRepo {
                 ps.setDouble(8, p.getCostPrice());
             ps.setInt(9, p.isActive() ? 1 : 0);
             ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    p.setId(keys.getInt(1));
+                } else {
+                    try (Statement st = conn.createStatement();
+                            ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+                        rs.next();
+                        p.setId(rs.getInt(1));
+                    }
+                }
+            }
         } catch (SQLException e) {
             throw new RuntimeException("insert failed", e);
         }
+        CatalogCache.get().put(p);
     }
 
     public void update(Product p) {
@@ -75,7 +288,7 @@ public class ProductRepo {
             throw new IllegalArgumentException("Product id is null");
         String sql = "UPDATE product SET barcode=?, name=?, price_gross=?, vat_rate=?, reorder_threshold=?, active=? WHERE id=?";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setString(1, p.getBarcode());
             ps.setString(2, p.getName());
             ps.setDouble(3, p.getPriceGross());
@@ -87,14 +300,136 @@ public class ProductRepo {
         } catch (SQLException e) {
             throw new RuntimeException("update failed", e);
         }
+        // Reload so the cache also sees columns this statement does not touch (stock)
+        CatalogCache.get().put(loadById(p.getId()));
+    }
+
+    // Bulk upsert keyed by barcode, in one write transaction: rows whose barcode
+    // already exists update name, prices, VAT, threshold and active flag (stock is
+    // only ever set on insert); rows without a barcode update the product of that
+    // exact name (a barcode-less one first); the rest are inserted. Later rows win
+    // when a barcode, or the name of a row without one, repeats within the batch.
+    // The catalog cache is not touched; callers importing many batches invalidate
+    // it once at the end.
+    public UpsertCounts upsertBatch(List<Product> batch) {
+        if (batch.isEmpty())
+            return new UpsertCounts(0, 0);
+        List<Product> rows = dedupe(batch);
+        try {
+            return Database.write(conn -> upsertBatch(conn, rows));
+        } catch (SQLException e) {
+            throw new RuntimeException("upsertBatch failed", e);
+        }
+    }
+
+    private UpsertCounts upsertBatch(Connection conn, List<Product> rows) throws SQLException {
+        String update = "UPDATE product SET name=?, price_gross=?, vat_rate=?, reorder_threshold=?, " +
+                "cost_price=COALESCE(?, cost_price), active=? WHERE barcode=?";
+        String updateByName = "UPDATE product SET name=?, price_gross=?, vat_rate=?, reorder_threshold=?, " +
+                "cost_price=COALESCE(?, cost_price), active=? WHERE id = (SELECT id FROM product WHERE name=? " +
+                "ORDER BY barcode IS NOT NULL, id LIMIT 1)";
+        String insert = "INSERT INTO product(barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
+                "reorder_threshold, cost_price, active) VALUES(?,?,?,?,?,?,?,?,?)";
+        List<Product> withBarcode = new ArrayList<>();
+        List<Product> withoutBarcode = new ArrayList<>();
+        for (Product p : rows) {
+            if (p.getBarcode() == null)
+                withoutBarcode.add(p);
+            else
+                withBarcode.add(p);
+        }
+        List<Product> toInsert = new ArrayList<>();
+        int updated = updateBatch(conn, update, withBarcode, true, toInsert)
+                + updateBatch(conn, updateByName, withoutBarcode, false, toInsert);
+        if (!toInsert.isEmpty()) {
+            try (PreparedStatement ps = Database.prepare(conn, insert)) {
+                for (Product p : toInsert) {
+                    ps.setString(1, p.getBarcode());
+                    ps.setString(2, p.getName());
+                    if (p.getCategoryId() == null)
+                        ps.setNull(3, Types.INTEGER);
+                    else
+                        ps.setInt(3, p.getCategoryId());
+                    ps.setDouble(4, p.getPriceGross());
+                    ps.setDouble(5, p.getVatRate());
+                    ps.setDouble(6, p.getStockQty());
+                    ps.setDouble(7, p.getReorderThreshold());
+                    if (p.getCostPrice() == null)
+                        ps.setNull(8, Types.REAL);
+                    else
+                        ps.setDouble(8, p.getCostPrice());
+                    ps.setInt(9, p.isActive() ? 1 : 0);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        return new UpsertCounts(toInsert.size(), updated);
     }
 
-    // Quick finder by barcode or exact name (used elsewhere)
+    // Runs the update for each row, keyed by barcode or by name; rows that
+    // matched nothing go to unmatched. Returns the number updated.
+    private static int updateBatch(Connection conn, String sql, List<Product> rows, boolean byBarcode,
+            List<Product> unmatched) throws SQLException {
+        if (rows.isEmpty())
+            return 0;
+        int updated = 0;
+        try (PreparedStatement ps = Database.prepare(conn, sql)) {
+            for (Product p : rows) {
+                ps.setString(1, p.getName());
+                ps.setDouble(2, p.getPriceGross());
+                ps.setDouble(3, p.getVatRate());
+                ps.setDouble(4, p.getReorderThreshold());
+                if (p.getCostPrice() == null)
+                    ps.setNull(5, Types.REAL);
+                else
+                    ps.setDouble(5, p.getCostPrice());
+                ps.setInt(6, p.isActive() ? 1 : 0);
+                ps.setString(7, byBarcode ? p.getBarcode() : p.getName());
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0)
+                    unmatched.add(rows.get(i));
+                else
+                    updated++;
+            }
+        }
+        return updated;
+    }
+
+    private static List<Product> dedupe(List<Product> batch) {
+        Map<String, Product> byBarcode = new LinkedHashMap<>();
+        Map<String, Product> byName = new LinkedHashMap<>();
+        for (Product p : batch) {
+            if (p.getBarcode() == null)
+                byName.put(p.getName(), p);
+            else
+                byBarcode.put(p.getBarcode(), p);
+        }
+        List<Product> out = new ArrayList<>(byName.values());
+        out.addAll(byBarcode.values());
+        return out;
+    }
+
+    // Quick finder by barcode or exact name (used elsewhere); served from the
+    // catalog cache, falling back to SQL for products it does not hold (added
+    // by another till, or any product in the fts and like search modes)
     public Product findByBarcodeOrName(String key) {
+        Product cached = CatalogCache.get().findByBarcodeOrName(key);
+        if (cached != null)
+            return cached;
+        Product p = loadByBarcodeOrName(key);
+        CatalogCache.get().resolved(p);
+        return p;
+    }
+
+    private Product loadByBarcodeOrName(String key) {
         String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
                 "reorder_threshold, cost_price, active FROM product WHERE barcode = ? OR name = ? LIMIT 1";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setString(1, key);
             ps.setString(2, key);
             try (ResultSet rs = ps.executeQuery()) {
@@ -107,9 +442,25 @@ public class ProductRepo {
         }
     }
 
-    // Substring search for autocomplete (case-insensitive on name; barcode
-    // exact/substring)
+    // Autocomplete search, dispatched on the configured mode
     public List<Product> searchByQuery(String q, int limit) {
+        switch (searchMode) {
+            case FTS:
+                return searchFts(q, limit);
+            case LIKE:
+                return searchLike(q, limit);
+            case INDEX:
+                // Substring match answered by the in-memory trigram index
+                return CatalogCache.get().search(q, Math.max(1, limit));
+            case FUZZY:
+            default:
+                List<Product> exact = CatalogCache.get().search(q, Math.max(1, limit));
+                return exact.isEmpty() ? CatalogCache.get().fuzzySearch(q, Math.max(1, limit)) : exact;
+        }
+    }
+
+    // Substring search in SQL (case-insensitive on name; barcode exact/substring)
+    private List<Product> searchLike(String q, int limit) {
         String like = "%" + q.toLowerCase() + "%";
         String sql = "SELECT id, barcode, name, category_id, price_gross, vat_rate, stock_qty, " +
                 "reorder_threshold, cost_price, active " +
@@ -118,7 +469,7 @@ public class ProductRepo {
                 "ORDER BY name LIMIT ?";
         List<Product> out = new ArrayList<>();
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setString(1, like);
             ps.setString(2, "%" + q + "%");
             ps.setInt(3, Math.max(1, limit));
@@ -132,6 +483,44 @@ public class ProductRepo {
         return out;
     }
 
+    // Token-prefix search through the product_fts table, ranked by bm25
+    private List<Product> searchFts(String q, int limit) {
+        String match = ftsPrefixQuery(q);
+        List<Product> out = new ArrayList<>();
+        if (match.isEmpty())
+            return out;
+        String sql = "SELECT p.id, p.barcode, p.name, p.category_id, p.price_gross, p.vat_rate, p.stock_qty, " +
+                "p.reorder_threshold, p.cost_price, p.active " +
+                "FROM product_fts f JOIN product p ON p.id = f.rowid " +
+                "WHERE product_fts MATCH ? AND p.active = 1 " +
+                "ORDER BY bm25(product_fts), p.name LIMIT ?";
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            ps.setString(1, match);
+            ps.setInt(2, Math.max(1, limit));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    out.add(map(rs));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("searchByQuery failed", e);
+        }
+        return out;
+    }
+
+    // "sucre bla" -> "sucre"* "bla"* (every token must match as a prefix)
+    static String ftsPrefixQuery(String q) {
+        StringBuilder sb = new StringBuilder();
+        for (String tok : q.trim().split("[^\\p{L}\\p{N}]+")) {
+            if (tok.isEmpty())
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append('"').append(tok).append("\"*");
+        }
+        return sb.toString();
+    }
+
     private Product map(ResultSet rs) throws SQLException {
         Product p = new Product();
         p.setId(rs.getInt("id"));
@@ -1,17 +1,63 @@
 package com.superette.repo;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.superette.db.Database;
+import com.superette.db.SaleJournal;
+import com.superette.model.Money;
+import com.superette.model.VatCalculator;
+import com.superette.service.CatalogCache;
+import com.superette.service.StockReservations;
 
 public class SaleRepo {
+    private static final Logger log = LoggerFactory.getLogger(SaleRepo.class);
+    // Tolerance for quantities that are sums of decimal fractions (0.1 + 0.2 kg)
+    private static final String QTY_EPSILON = "1e-9";
+    // Takes the quantities of a json_each [[id, qty], ...] array from the products
+    // that have enough; the guard lets a sum of fractions come up QTY_EPSILON short
+    private static final String TAKE_STOCK = "UPDATE product SET stock_qty = MAX(0.0, ROUND(stock_qty - n.qty, 6)) " +
+            "FROM (SELECT json_extract(value, '$[0]') AS id, json_extract(value, '$[1]') AS qty " +
+            "FROM json_each(?)) AS n WHERE product.id = n.id AND product.stock_qty >= n.qty - " + QTY_EPSILON;
+    private static final String NEXT_REGISTER_SEQ = "INSERT INTO register_sequence(register_id, last_seq) " +
+            "VALUES(?, 1) ON CONFLICT(register_id) DO UPDATE SET last_seq = last_seq + 1";
+    private static final String SUMMARY_COLUMNS = "id, datetime, total_gross_mil, total_vat_mil, payment_method, " +
+            "register_id, register_seq, status, returned_gross_mil, returned_vat_mil";
+    private static final String GIVE_BACK_STOCK = "UPDATE product SET stock_qty = ROUND(stock_qty + n.qty, 6) " +
+            "FROM (SELECT json_extract(value, '$[0]') AS id, json_extract(value, '$[1]') AS qty " +
+            "FROM json_each(?)) AS n WHERE product.id = n.id";
+    // Times are stored in UTC by datetime('now'); days are the register's local days
+    private static final DateTimeFormatter SQL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Payment method codes in journal records; append new methods, never reorder
+    private static final List<String> JOURNAL_METHODS = List.of("CASH", "CARD");
+    private static final int MAX_KEY_LENGTH = 64;
+    private static final long RETRY_MAX_MILLIS = 30_000;
+    private static final long REPLAY_WAIT_SECONDS = 30;
 
     public static class SaleItem {
         public final int productId;
@@ -32,146 +78,797 @@ public class SaleRepo {
         public String datetime;
         public double totalGross;
         public double totalVat;
+        public long totalGrossMillimes;
+        public long totalVatMillimes;
         public String paymentMethod;
+        public String registerId;
+        public Integer registerSeq; // null for sales recorded before registers were numbered
+        public String status; // COMPLETED or CANCELLED (voided)
+        public long returnedGrossMillimes;
+        public long returnedVatMillimes;
     }
 
     public static class SaleLineDetail {
+        public int itemId;
+        public int productId;
         public String productName;
         public String barcode;
         public double qty;
         public double unitPriceGross;
         public double vatRate;
+        public double returnedQty;
+    }
+
+    // End-of-day totals, summed from the integer millime columns so the same
+    // day always gives the same figures. Sales count on the day they were made;
+    // voids and returns are taken off the day they happen, so a day already
+    // reported never changes. sales leaves out the day's sales voided that day.
+    public static class ZReport {
+        public final LocalDate day;
+        public final int sales;
+        public final long grossMillimes;
+        public final long vatMillimes;
+        public final long cashMillimes;
+        public final long cardMillimes;
+        public final List<VatBand> bands; // by VAT rate, from the sale lines
+
+        public ZReport(LocalDate day, int sales, long grossMillimes, long vatMillimes, long cashMillimes,
+                long cardMillimes, List<VatBand> bands) {
+            this.day = day;
+            this.sales = sales;
+            this.grossMillimes = grossMillimes;
+            this.vatMillimes = vatMillimes;
+            this.cashMillimes = cashMillimes;
+            this.cardMillimes = cardMillimes;
+            this.bands = bands;
+        }
+    }
+
+    public static class VatBand {
+        public final double rate;
+        public final long grossMillimes;
+        public final long vatMillimes;
+
+        public VatBand(double rate, long grossMillimes, long vatMillimes) {
+            this.rate = rate;
+            this.grossMillimes = grossMillimes;
+            this.vatMillimes = vatMillimes;
+        }
+    }
+
+    // One product the cart wants more of than is in stock
+    public static class Shortage {
+        public final int productId;
+        public final String name; // null when the product does not exist
+        public final double available;
+        public final double requested;
+
+        public Shortage(int productId, String name, double available, double requested) {
+            this.productId = productId;
+            this.name = name;
+            this.available = available;
+            this.requested = requested;
+        }
+
+        @Override
+        public String toString() {
+            if (name == null)
+                return "Product not found id=" + productId;
+            return name + ": have " + fmt(available) + ", need " + fmt(requested);
+        }
+    }
+
+    // Checkout refused; lists every short product, not just the first one
+    public static class InsufficientStockException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public final List<Shortage> shortages;
+
+        public InsufficientStockException(List<Shortage> shortages) {
+            super(message(shortages));
+            this.shortages = shortages;
+        }
+
+        private static String message(List<Shortage> shortages) {
+            StringBuilder sb = new StringBuilder("Insufficient stock:");
+            for (Shortage s : shortages)
+                sb.append("\n- ").append(s);
+            return sb.toString();
+        }
+    }
+
+    // What a write job did with a sale: recorded it, or found it already there
+    private static final class Recorded {
+        final int saleId;
+        final boolean replayed;
+
+        Recorded(int saleId, boolean replayed) {
+            this.saleId = saleId;
+            this.replayed = replayed;
+        }
+    }
+
+    // What a void or return job committed: sales voided or refund in millimes,
+    // and the stock given back per product. Built fresh on every run of the job,
+    // since the writer may run it again after a busy rollback.
+    private static final class Reversal {
+        final long amount;
+        final Map<Integer, Double> restored;
+
+        Reversal(long amount, Map<Integer, Double> restored) {
+            this.amount = amount;
+            this.restored = restored;
+        }
+
+        void adjustCache() {
+            for (Map.Entry<Integer, Double> e : restored.entrySet())
+                CatalogCache.get().adjustStock(e.getKey(), e.getValue());
+        }
+    }
+
+    // A sale confirmed from the journal; committed completes with the sale id
+    // once it is in the database
+    public static class JournaledSale {
+        public final long journalSeq;
+        public final CompletableFuture<Integer> committed;
+
+        public JournaledSale(long journalSeq, CompletableFuture<Integer> committed) {
+            this.journalSeq = journalSeq;
+            this.committed = committed;
+        }
     }
 
     public int createSale(List<SaleItem> items, String paymentMethod) {
+        return createSale(items, paymentMethod, null);
+    }
+
+    public int createSale(List<SaleItem> items, String paymentMethod, StockReservations.Cart reservation) {
+        return createSale(items, paymentMethod, reservation, null);
+    }
+
+    // With an idempotency key (one per cart, made by the register), a sale that
+    // was already recorded under the key is not recorded again: its id is returned
+    public int createSale(List<SaleItem> items, String paymentMethod, StockReservations.Cart reservation,
+            String idempotencyKey) {
+        try {
+            return createSaleAsync(items, paymentMethod, reservation, idempotencyKey).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    // Queues the sale on the writer thread and returns at once; the future
+    // completes after the commit with the sale id, or with the same exceptions
+    // createSale throws. Validation errors fail the future without queueing.
+    // When the register's reservation cart holds every quantity (and no other
+    // register shares the database), the stock read before the UPDATE is
+    // skipped; the reservations are let go once the sale is in
+    public CompletableFuture<Integer> createSaleAsync(List<SaleItem> items, String paymentMethod,
+            StockReservations.Cart reservation) {
+        return createSaleAsync(items, paymentMethod, reservation, null);
+    }
+
+    public CompletableFuture<Integer> createSaleAsync(List<SaleItem> items, String paymentMethod,
+            StockReservations.Cart reservation, String idempotencyKey) {
+        try {
+            validate(items, paymentMethod);
+            validateKey(idempotencyKey);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Map<Integer, Double> needed = quantitiesByProduct(items);
+        boolean reserved = reservation != null && reservation.covers(needed) && !Database.isShared();
+
+        return Database.writer().submit(conn -> insertSale(conn, items, needed, paymentMethod, reserved,
+                idempotencyKey)).handle((recorded, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        if (cause instanceof SQLException)
+                            throw new RuntimeException("createSale failed", cause);
+                        throw cause instanceof RuntimeException ? (RuntimeException) cause
+                                : new CompletionException(cause);
+                    }
+                    if (!recorded.replayed) {
+                        for (Map.Entry<Integer, Double> e : needed.entrySet())
+                            CatalogCache.get().adjustStock(e.getKey(), -e.getValue());
+                    }
+                    if (reservation != null)
+                        reservation.releaseAll();
+                    return recorded.saleId;
+                });
+    }
+
+    // Confirms a sale as soon as it is forced to the sale journal, without
+    // waiting for SQLite. Only carts whose reservation holds every quantity are
+    // journaled, since a confirmed sale can no longer be refused for stock, and
+    // only while no other register shares the database (its carts are not in
+    // this register's reservations); returns null for the others (or when the
+    // journal is full), which go through createSaleAsync instead. The sale is applied in the background
+    // and retried while the database is unavailable.
+    public JournaledSale journalSale(List<SaleItem> items, String paymentMethod,
+            StockReservations.Cart reservation) {
+        return journalSale(items, paymentMethod, reservation, null);
+    }
+
+    public JournaledSale journalSale(List<SaleItem> items, String paymentMethod,
+            StockReservations.Cart reservation, String idempotencyKey) {
+        validate(items, paymentMethod);
+        validateKey(idempotencyKey);
+        Map<Integer, Double> needed = quantitiesByProduct(items);
+        if (reservation == null || !reservation.covers(needed) || Database.isShared())
+            return null;
+        long now = System.currentTimeMillis();
+        long seq = Database.journal().append(encode(paymentMethod, now, items, idempotencyKey));
+        if (seq < 0)
+            return null;
+        CompletableFuture<Recorded> committed = new CompletableFuture<>();
+        applyJournaled(seq, now, items, paymentMethod, idempotencyKey, 0, committed);
+        return new JournaledSale(seq, committed.thenApply(recorded -> {
+            if (!recorded.replayed) {
+                for (Map.Entry<Integer, Double> e : needed.entrySet())
+                    CatalogCache.get().adjustStock(e.getKey(), -e.getValue());
+            }
+            reservation.releaseAll();
+            return recorded.saleId;
+        }));
+    }
+
+    // Applies journal records left over from the last run (crash, locked
+    // database) and waits a while for them; returns how many were found.
+    // Blocks for up to REPLAY_WAIT_SECONDS, so call it off the FX thread.
+    public int replayJournal() {
+        List<SaleJournal.Record> records = Database.journal().recovered();
+        List<CompletableFuture<Recorded>> applied = new ArrayList<>();
+        for (SaleJournal.Record r : records) {
+            CompletableFuture<Recorded> done = new CompletableFuture<>();
+            applied.add(done);
+            String method;
+            long epochMillis;
+            List<SaleItem> items = new ArrayList<>();
+            String key = null;
+            try { // same layout as encode()
+                ByteBuffer in = ByteBuffer.wrap(r.payload).order(ByteOrder.LITTLE_ENDIAN);
+                method = methodOf(in.get());
+                epochMillis = in.getLong();
+                for (int n = in.getInt(); n > 0; n--)
+                    items.add(new SaleItem(in.getInt(), in.getDouble(), in.getDouble(), in.getDouble()));
+                if (in.remaining() >= 2) { // records written before keys existed end here
+                    byte[] k = new byte[in.getShort()];
+                    in.get(k);
+                    key = new String(k, StandardCharsets.UTF_8);
+                }
+            } catch (RuntimeException e) {
+                setAside(r.seq, r.payload, e, done);
+                continue;
+            }
+            applyJournaled(r.seq, epochMillis, items, method, key, 0, done);
+        }
+        try {
+            CompletableFuture.allOf(applied.toArray(CompletableFuture<?>[]::new)).get(REPLAY_WAIT_SECONDS,
+                    TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            log.error("Some journaled sales could not be applied; see sale_dead_letter", e.getCause());
+        } catch (TimeoutException e) {
+            log.warn("Journaled sales still waiting for the database; they keep retrying in the background");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!records.isEmpty())
+            CatalogCache.get().invalidateAll();
+        return records.size();
+    }
+
+    private void applyJournaled(long seq, long epochMillis, List<SaleItem> items, String paymentMethod,
+            String idempotencyKey, int attempt, CompletableFuture<Recorded> committed) {
+        Database.writer().submit(conn -> insertJournaledSale(conn, seq, epochMillis, items, paymentMethod,
+                idempotencyKey)).whenComplete((recorded, error) -> {
+                    if (error == null) {
+                        Database.journal().applied(seq);
+                        committed.complete(recorded);
+                    } else if (error instanceof SQLException && Database.isBusy((SQLException) error)) {
+                        // Busy or locked database: the record is safe in the journal, try again later
+                        long delay = Math.min(RETRY_MAX_MILLIS, 250L << Math.min(attempt, 7));
+                        log.warn("Applying journaled sale {} failed, retrying in {} ms", seq, delay, error);
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(
+                                () -> applyJournaled(seq, epochMillis, items, paymentMethod, idempotencyKey,
+                                        attempt + 1, committed));
+                    } else {
+                        // Retrying will not help: set it aside so the journal can move on
+                        setAside(seq, encode(paymentMethod, epochMillis, items, idempotencyKey), error, committed);
+                    }
+                });
+    }
+
+    private void setAside(long seq, byte[] payload, Throwable error, CompletableFuture<Recorded> committed) {
+        log.error("Journaled sale {} could not be applied, moving it to sale_dead_letter", seq, error);
+        Database.writer().submit(conn -> {
+            try (PreparedStatement ps = Database.prepare(conn,
+                    "INSERT OR IGNORE INTO sale_dead_letter(register_id, journal_seq, payload, error, failed_at) " +
+                            "VALUES(?, ?, ?, ?, datetime('now'))")) {
+                ps.setString(1, Database.registerId());
+                ps.setLong(2, seq);
+                ps.setBytes(3, payload);
+                ps.setString(4, String.valueOf(error));
+                return ps.executeUpdate();
+            }
+        }).whenComplete((n, e) -> {
+            if (e == null)
+                Database.journal().applied(seq);
+            else // left in the journal for the next startup
+                log.error("Journaled sale {} could not be set aside either", seq, e);
+            committed.completeExceptionally(error);
+        });
+    }
+
+    // Journaled sales of every register that were set aside instead of applied
+    public int deadLetterCount() {
+        try (Connection conn = Database.getConnection();
+                PreparedStatement ps = Database.prepare(conn, "SELECT COUNT(*) FROM sale_dead_letter");
+                ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new RuntimeException("deadLetterCount failed", e);
+        }
+    }
+
+    // Runs on the writer thread. A record that was already applied before a
+    // crash is recognised by its journal sequence number (or its idempotency
+    // key, when the cart was also paid another way). The stock was reserved on
+    // this register only, so another register or a correction may have taken
+    // it since: the sale was confirmed and stands, but each product it finds
+    // short goes down to zero with an OVERSELL adjustment for what was missing.
+    private Recorded insertJournaledSale(Connection conn, long seq, long epochMillis, List<SaleItem> items,
+            String paymentMethod, String idempotencyKey) throws SQLException {
+        try (PreparedStatement ps = Database.prepare(conn,
+                "SELECT id FROM sale WHERE register_id = ? AND journal_seq = ?")) {
+            ps.setString(1, Database.registerId());
+            ps.setLong(2, seq);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next())
+                    return new Recorded(rs.getInt(1), true);
+            }
+        }
+        Integer existing = saleWithKey(conn, idempotencyKey);
+        if (existing != null)
+            return new Recorded(existing, true);
+        Map<Integer, Double> needed = quantitiesByProduct(items);
+        String json = quantitiesJson(needed);
+        List<Shortage> shortages = shortages(conn, json, needed);
+        try (PreparedStatement ps = Database.prepare(conn, TAKE_STOCK)) {
+            ps.setString(1, json);
+            ps.executeUpdate();
+        }
+        int saleId = insertSaleRows(conn, items, paymentMethod, seq, epochMillis, idempotencyKey);
+        if (!shortages.isEmpty())
+            oversold(conn, saleId, shortages);
+        return new Recorded(saleId, false);
+    }
+
+    // The SALE movements log the full quantities; the ADJUST brings the ledger
+    // back to the stock that was really there, and flags it for a recount
+    private static void oversold(Connection conn, int saleId, List<Shortage> shortages) throws SQLException {
+        try (PreparedStatement zero = Database.prepare(conn, "UPDATE product SET stock_qty = 0 WHERE id = ?");
+                PreparedStatement mov = Database.prepare(conn,
+                        "INSERT INTO stock_movement(product_id, type, qty, datetime, reference, note) " +
+                                "VALUES(?, 'ADJUST', ?, datetime('now'), 'OVERSELL', ?)")) {
+            for (Shortage s : shortages) {
+                log.warn("Journaled sale #{} oversold {}", saleId, s);
+                zero.setInt(1, s.productId);
+                zero.executeUpdate();
+                mov.setInt(1, s.productId);
+                mov.setDouble(2, Math.round((s.requested - s.available) * 1e6) / 1e6);
+                mov.setString(3, "Sale #" + saleId + ": " + s);
+                mov.executeUpdate();
+            }
+        }
+    }
+
+    // Runs on the writer thread, which holds the write lock, so the lookup and
+    // the insert that follows cannot interleave with another register's
+    private static Integer saleWithKey(Connection conn, String idempotencyKey) throws SQLException {
+        if (idempotencyKey == null)
+            return null;
+        try (PreparedStatement ps = Database.prepare(conn, "SELECT id FROM sale WHERE idempotency_key = ?")) {
+            ps.setString(1, idempotencyKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    static byte[] encode(String paymentMethod, long epochMillis, List<SaleItem> items) {
+        return encode(paymentMethod, epochMillis, items, null);
+    }
+
+    // [method][confirmed at][count] then [product id][qty][unit price][vat rate]
+    // per line, then [key length][key, UTF-8] when the sale has an idempotency key
+    static byte[] encode(String paymentMethod, long epochMillis, List<SaleItem> items, String idempotencyKey) {
+        byte method = (byte) JOURNAL_METHODS.indexOf(paymentMethod);
+        if (method < 0)
+            throw new IllegalArgumentException("Invalid payment method");
+        byte[] key = idempotencyKey == null ? null : idempotencyKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(13 + 28 * items.size() + (key == null ? 0 : 2 + key.length))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(method).putLong(epochMillis).putInt(items.size());
+        for (SaleItem it : items)
+            out.putInt(it.productId).putDouble(it.qty).putDouble(it.unitPriceGross).putDouble(it.vatRate);
+        if (key != null)
+            out.putShort((short) key.length).put(key);
+        return out.array();
+    }
+
+    private static String methodOf(byte code) {
+        if (code < 0 || code >= JOURNAL_METHODS.size())
+            throw new IllegalArgumentException("Unknown payment method code " + code);
+        return JOURNAL_METHODS.get(code);
+    }
+
+    private static void validateKey(String idempotencyKey) {
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH))
+            throw new IllegalArgumentException("Invalid idempotency key");
+    }
+
+    private static void validate(List<SaleItem> items, String paymentMethod) {
         if (items == null || items.isEmpty())
             throw new IllegalArgumentException("Cart is empty");
         if (!"CASH".equals(paymentMethod) && !"CARD".equals(paymentMethod)) {
             throw new IllegalArgumentException("Invalid payment method");
         }
+        for (SaleItem it : items) {
+            if (!(it.qty > 0) || Double.isInfinite(it.qty))
+                throw new IllegalArgumentException("Quantity must be > 0");
+        }
+    }
 
-        try (Connection conn = Database.getConnection()) {
-            conn.setAutoCommit(false);
-            try {
-                // 1) Stock checks
-                for (SaleItem it : items) {
-                    double stock = getCurrentStock(conn, it.productId);
-                    if (it.qty <= 0)
-                        throw new IllegalArgumentException("Quantity must be > 0");
-                    if (stock < it.qty) {
-                        throw new IllegalStateException("Insufficient stock for product ID " + it.productId +
-                                ": have " + stock + ", need " + it.qty);
+    // Runs on the writer thread inside its transaction
+    private Recorded insertSale(Connection conn, List<SaleItem> items, Map<Integer, Double> needed,
+            String paymentMethod, boolean reserved, String idempotencyKey) throws SQLException {
+        // 0) A replay (double click, retry after a timeout) gets the sale it already made
+        Integer existing = saleWithKey(conn, idempotencyKey);
+        if (existing != null)
+            return new Recorded(existing, true);
+
+        // 1) One query checks the whole cart and reports every short (or missing)
+        //    product; one conditional UPDATE then takes the stock, and its row
+        //    count confirms nothing changed in between. Reserved carts go straight
+        //    to the UPDATE and only look for shortages when it comes up short.
+        String json = quantitiesJson(needed);
+        if (!reserved) {
+            List<Shortage> shortages = shortages(conn, json, needed);
+            if (!shortages.isEmpty())
+                throw new InsufficientStockException(shortages);
+        }
+        Savepoint beforeTake = conn.setSavepoint();
+        try (PreparedStatement ps = Database.prepare(conn, TAKE_STOCK)) {
+            ps.setString(1, json);
+            if (ps.executeUpdate() != needed.size()) {
+                conn.rollback(beforeTake);
+                List<Shortage> shortages = shortages(conn, json, needed);
+                if (!shortages.isEmpty())
+                    throw new InsufficientStockException(shortages);
+                throw new IllegalStateException("Stock changed during checkout, please retry");
+            }
+        }
+        conn.releaseSavepoint(beforeTake);
+        return new Recorded(insertSaleRows(conn, items, paymentMethod, null, null, idempotencyKey), false);
+    }
+
+    // Steps 2-4 of a sale whose stock has already been taken. A journaled sale
+    // keeps its confirmation time and journal sequence number.
+    private int insertSaleRows(Connection conn, List<SaleItem> items, String paymentMethod, Long journalSeq,
+            Long epochMillis, String idempotencyKey) throws SQLException {
+        // 2) Totals, in millimes
+        VatCalculator totals = new VatCalculator();
+        for (SaleItem it : items)
+            totals.add(Money.of(it.unitPriceGross), it.qty, it.vatRate);
+
+        // 3) Insert sale, numbered in this register's own sequence (the writer
+        //    holds the database write lock, so no other register can interleave)
+        String register = Database.registerId();
+        try (PreparedStatement ps = Database.prepare(conn, NEXT_REGISTER_SEQ)) {
+            ps.setString(1, register);
+            ps.executeUpdate();
+        }
+        int saleId;
+        try (PreparedStatement ps = Database.prepare(conn,
+                "INSERT INTO sale(datetime, cashier_id, total_gross, total_vat, total_gross_mil, total_vat_mil, " +
+                        "payment_method, status, journal_seq, register_id, register_seq, idempotency_key) " +
+                        "VALUES(COALESCE(datetime(? / 1000, 'unixepoch'), datetime('now')), " +
+                        "NULL, ?, ?, ?, ?, ?, 'COMPLETED', ?, ?, " +
+                        "(SELECT last_seq FROM register_sequence WHERE register_id = ?), ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            ps.setObject(1, epochMillis);
+            ps.setDouble(2, Money.toDouble(totals.gross()));
+            ps.setDouble(3, Money.toDouble(totals.vat()));
+            ps.setLong(4, totals.gross());
+            ps.setLong(5, totals.vat());
+            ps.setString(6, paymentMethod);
+            ps.setObject(7, journalSeq);
+            ps.setString(8, register);
+            ps.setString(9, register);
+            ps.setString(10, idempotencyKey);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    saleId = keys.getInt(1);
+                } else {
+                    try (Statement st = conn.createStatement();
+                            ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+                        rs.next();
+                        saleId = rs.getInt(1);
                     }
                 }
+            }
+        }
+
+        // 4) Insert sale items and log movements (stock was already taken)
+        try (PreparedStatement insItem = Database.prepare(conn,
+                "INSERT INTO sale_item(sale_id, product_id, qty, unit_price_gross, vat_rate, unit_price_mil, " +
+                        "line_gross_mil, line_vat_mil) VALUES(?,?,?,?,?,?,?,?)");
+                PreparedStatement insMov = Database.prepare(conn,
+                        "INSERT INTO stock_movement(product_id, type, qty, datetime, reference, note) " +
+                                "VALUES(?, 'SALE', ?, datetime('now'), ?, ?)")) {
+            for (SaleItem it : items) {
+                long unit = Money.of(it.unitPriceGross);
+                long lineGross = VatCalculator.lineGross(unit, it.qty);
+                insItem.setInt(1, saleId);
+                insItem.setInt(2, it.productId);
+                insItem.setDouble(3, it.qty);
+                insItem.setDouble(4, it.unitPriceGross);
+                insItem.setDouble(5, it.vatRate);
+                insItem.setLong(6, unit);
+                insItem.setLong(7, lineGross);
+                insItem.setLong(8, VatCalculator.vatIncluded(lineGross, it.vatRate));
+                insItem.addBatch();
 
-                // 2) Totals
-                double totalGross = 0.0;
-                double totalVat = 0.0;
-                for (SaleItem it : items) {
-                    double lineGross = it.qty * it.unitPriceGross;
-                    totalGross += lineGross;
-                    double net = it.unitPriceGross / (1.0 + it.vatRate / 100.0);
-                    totalVat += it.qty * (it.unitPriceGross - net);
+                insMov.setInt(1, it.productId);
+                insMov.setDouble(2, -it.qty);
+                insMov.setString(3, "SALE");
+                insMov.setString(4, null);
+                insMov.addBatch();
+            }
+            insItem.executeBatch();
+            insMov.executeBatch();
+        }
+        return saleId;
+    }
+
+    // Every product of the cart that is missing or short, in cart order
+    private List<Shortage> shortages(Connection conn, String json, Map<Integer, Double> needed)
+            throws SQLException {
+        Map<Integer, Shortage> found = new HashMap<>();
+        try (PreparedStatement ps = Database.prepare(conn,
+                "SELECT n.id, p.name, p.stock_qty FROM " +
+                        "(SELECT json_extract(value, '$[0]') AS id, json_extract(value, '$[1]') AS qty " +
+                        "FROM json_each(?)) AS n LEFT JOIN product p ON p.id = n.id " +
+                        "WHERE p.id IS NULL OR p.stock_qty < n.qty - " + QTY_EPSILON)) {
+            ps.setString(1, json);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    found.put(id, new Shortage(id, rs.getString(2), rs.getDouble(3), needed.get(id)));
                 }
+            }
+        }
+        List<Shortage> out = new ArrayList<>();
+        for (Integer id : needed.keySet()) {
+            if (found.containsKey(id))
+                out.add(found.get(id));
+        }
+        return out;
+    }
 
-                // 3) Insert sale
-                int saleId;
-                try (PreparedStatement ps = conn.prepareStatement(
-                        "INSERT INTO sale(datetime, cashier_id, total_gross, total_vat, payment_method, status) " +
-                                "VALUES(datetime('now'), NULL, ?, ?, ?, 'COMPLETED')",
-                        Statement.RETURN_GENERATED_KEYS)) {
-                    ps.setDouble(1, totalGross);
-                    ps.setDouble(2, totalVat);
-                    ps.setString(3, paymentMethod);
-                    ps.executeUpdate();
-                    try (ResultSet keys = ps.getGeneratedKeys()) {
-                        if (keys.next()) {
-                            saleId = keys.getInt(1);
-                        } else {
-                            try (Statement st = conn.createStatement();
-                                    ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
-                                rs.next();
-                                saleId = rs.getInt(1);
-                            }
-                        }
+    // Total quantity per product, in first-seen order (a product can be on several lines)
+    static Map<Integer, Double> quantitiesByProduct(List<SaleItem> items) {
+        Map<Integer, Double> out = new LinkedHashMap<>();
+        for (SaleItem it : items)
+            out.merge(it.productId, it.qty, Double::sum);
+        return out;
+    }
+
+    // [[product id, qty], ...] in map order, read back in SQL with json_each
+    static String quantitiesJson(Map<Integer, Double> needed) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<Integer, Double> e : needed.entrySet()) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append('[').append(e.getKey()).append(',').append(e.getValue()).append(']');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String fmt(double qty) {
+        return qty == Math.rint(qty) ? String.valueOf((long) qty) : String.valueOf(qty);
+    }
+
+    // Voids whole sales (also end-of-day bulk voids): what is left of every line
+    // goes back to stock with one reversing movement per line, and the sales
+    // become CANCELLED. Each step is one statement over all the sales, so
+    // hundreds of them cost the same handful of statements in one transaction.
+    // Sales already voided are skipped; returns how many were voided.
+    public int voidSales(Collection<Integer> saleIds) {
+        if (saleIds == null || saleIds.isEmpty())
+            return 0;
+        String ids = idsJson(saleIds);
+        String remaining = "FROM sale_item si JOIN sale s ON s.id = si.sale_id " +
+                "WHERE s.id IN (SELECT value FROM json_each(?)) AND s.status = 'COMPLETED' " +
+                "AND si.returned_qty < si.qty";
+        Reversal voided;
+        try {
+            voided = Database.write(conn -> {
+                Map<Integer, Double> restored = new LinkedHashMap<>();
+                try (PreparedStatement ps = Database.prepare(conn,
+                        "SELECT si.product_id, SUM(si.qty - si.returned_qty) " + remaining +
+                                " GROUP BY si.product_id")) {
+                    ps.setString(1, ids);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next())
+                            restored.put(rs.getInt(1), rs.getDouble(2));
                     }
                 }
-
-                // 4) Insert sale items, decrement stock, log movements
-                try (PreparedStatement insItem = conn.prepareStatement(
-                        "INSERT INTO sale_item(sale_id, product_id, qty, unit_price_gross, vat_rate) VALUES(?,?,?,?,?)");
-                        PreparedStatement decStock = conn.prepareStatement(
-                                "UPDATE product SET stock_qty = stock_qty - ? WHERE id = ?");
-                        PreparedStatement insMov = conn.prepareStatement(
-                                "INSERT INTO stock_movement(product_id, type, qty, datetime, reference, note) " +
-                                        "VALUES(?, 'SALE', ?, datetime('now'), ?, ?)")) {
-                    for (SaleItem it : items) {
-                        insItem.setInt(1, saleId);
-                        insItem.setInt(2, it.productId);
-                        insItem.setDouble(3, it.qty);
-                        insItem.setDouble(4, it.unitPriceGross);
-                        insItem.setDouble(5, it.vatRate);
-                        insItem.addBatch();
-
-                        decStock.setDouble(1, it.qty);
-                        decStock.setInt(2, it.productId);
-                        decStock.addBatch();
-
-                        insMov.setInt(1, it.productId);
-                        insMov.setDouble(2, -it.qty);
-                        insMov.setString(3, "SALE");
-                        insMov.setString(4, null);
-                        insMov.addBatch();
+                if (!restored.isEmpty()) {
+                    try (PreparedStatement ps = Database.prepare(conn,
+                            "INSERT INTO stock_movement(product_id, type, qty, datetime, reference, note) " +
+                                    "SELECT si.product_id, 'ADJUST', ROUND(si.qty - si.returned_qty, 6), " +
+                                    "datetime('now'), 'VOID', 'Sale #' || si.sale_id " + remaining)) {
+                        ps.setString(1, ids);
+                        ps.executeUpdate();
                     }
-                    insItem.executeBatch();
-                    decStock.executeBatch();
-                    insMov.executeBatch();
+                    try (PreparedStatement ps = Database.prepare(conn, GIVE_BACK_STOCK)) {
+                        ps.setString(1, quantitiesJson(restored));
+                        ps.executeUpdate();
+                    }
+                }
+                try (PreparedStatement ps = Database.prepare(conn, "UPDATE sale SET status = 'CANCELLED', " +
+                        "voided_at = datetime('now') WHERE id IN (SELECT value FROM json_each(?)) " +
+                        "AND status = 'COMPLETED'")) {
+                    ps.setString(1, ids);
+                    return new Reversal(ps.executeUpdate(), restored);
                 }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("voidSales failed", e);
+        }
+        voided.adjustCache();
+        return (int) voided.amount;
+    }
 
-                conn.commit();
-                return saleId;
-            } catch (Exception e) {
-                conn.rollback();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
-            }
+    // Returns part of a sale (sale_item id -> qty to return) and gives the
+    // stock back; the refund is priced like the sale, and returning all that is
+    // left of a line refunds exactly what is left of its amount. Returns the
+    // refund in millimes.
+    public long returnItems(int saleId, Map<Integer, Double> qtyByItem) {
+        if (qtyByItem == null || qtyByItem.isEmpty())
+            throw new IllegalArgumentException("Nothing to return");
+        for (double qty : qtyByItem.values()) {
+            if (!(qty > 0) || Double.isInfinite(qty))
+                throw new IllegalArgumentException("Quantity must be > 0");
+        }
+        Reversal refund;
+        try {
+            refund = Database.write(conn -> {
+                Map<Integer, Double> restored = new LinkedHashMap<>();
+                String returns = returnsJson(conn, saleId, qtyByItem, restored);
+                String r = "(SELECT json_extract(value, '$[0]') AS id, json_extract(value, '$[1]') AS qty, " +
+                        "json_extract(value, '$[2]') AS gross, json_extract(value, '$[3]') AS vat " +
+                        "FROM json_each(?)) AS r";
+                try (PreparedStatement ps = Database.prepare(conn,
+                        "UPDATE sale_item SET returned_qty = ROUND(returned_qty + r.qty, 6), " +
+                                "returned_gross_mil = returned_gross_mil + r.gross, " +
+                                "returned_vat_mil = returned_vat_mil + r.vat " +
+                                "FROM " + r + " WHERE sale_item.id = r.id")) {
+                    ps.setString(1, returns);
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = Database.prepare(conn,
+                        "INSERT INTO sale_return(sale_item_id, datetime, qty, gross_mil, vat_mil) " +
+                                "SELECT r.id, datetime('now'), r.qty, r.gross, r.vat FROM " + r)) {
+                    ps.setString(1, returns);
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = Database.prepare(conn,
+                        "INSERT INTO stock_movement(product_id, type, qty, datetime, reference, note) " +
+                                "SELECT si.product_id, 'ADJUST', r.qty, datetime('now'), 'RETURN', " +
+                                "'Sale #' || si.sale_id FROM " + r + " JOIN sale_item si ON si.id = r.id")) {
+                    ps.setString(1, returns);
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = Database.prepare(conn, GIVE_BACK_STOCK)) {
+                    ps.setString(1, quantitiesJson(restored));
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = Database.prepare(conn,
+                        "UPDATE sale SET (returned_gross_mil, returned_vat_mil) = " +
+                                "(SELECT SUM(returned_gross_mil), SUM(returned_vat_mil) FROM sale_item " +
+                                "WHERE sale_id = sale.id) WHERE id = ?");
+                        PreparedStatement sum = Database.prepare(conn,
+                                "SELECT COALESCE(SUM(json_extract(value, '$[2]')), 0) FROM json_each(?)")) {
+                    ps.setInt(1, saleId);
+                    ps.executeUpdate();
+                    sum.setString(1, returns);
+                    try (ResultSet rs = sum.executeQuery()) {
+                        rs.next();
+                        return new Reversal(rs.getLong(1), restored);
+                    }
+                }
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("createSale failed", e);
+            throw new RuntimeException("returnItems failed", e);
         }
+        refund.adjustCache();
+        return refund.amount;
     }
 
-    private double getCurrentStock(Connection conn, int productId) throws SQLException {
-        try (PreparedStatement ps = conn.prepareStatement("SELECT stock_qty FROM product WHERE id = ?")) {
-            ps.setInt(1, productId);
+    // Checks the requested returns against what is left of the sale's lines and
+    // prices them: [[item id, qty, gross, vat], ...]. Fills restored per product.
+    private static String returnsJson(Connection conn, int saleId, Map<Integer, Double> qtyByItem,
+            Map<Integer, Double> restored) throws SQLException {
+        StringBuilder json = new StringBuilder("[");
+        try (PreparedStatement ps = Database.prepare(conn,
+                "SELECT si.id, si.product_id, si.qty - si.returned_qty, si.unit_price_mil, si.vat_rate, " +
+                        "si.line_gross_mil - si.returned_gross_mil, si.line_vat_mil - si.returned_vat_mil " +
+                        "FROM sale_item si JOIN sale s ON s.id = si.sale_id " +
+                        "WHERE s.id = ? AND s.status = 'COMPLETED'")) {
+            ps.setInt(1, saleId);
+            Map<Integer, Double> left = new HashMap<>(qtyByItem);
             try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next())
-                    throw new IllegalArgumentException("Product not found id=" + productId);
-                return rs.getDouble(1);
+                while (rs.next()) {
+                    Double qty = left.remove(rs.getInt(1));
+                    if (qty == null)
+                        continue;
+                    double remaining = rs.getDouble(3);
+                    if (qty > remaining + 1e-9)
+                        throw new IllegalArgumentException("Cannot return " + fmt(qty) + ", only " + fmt(remaining) +
+                                " left on the line");
+                    long gross;
+                    long vat;
+                    if (qty > remaining - 1e-9) {
+                        qty = remaining;
+                        gross = rs.getLong(6);
+                        vat = rs.getLong(7);
+                    } else {
+                        gross = VatCalculator.lineGross(rs.getLong(4), qty);
+                        vat = VatCalculator.vatIncluded(gross, rs.getDouble(5));
+                    }
+                    restored.merge(rs.getInt(2), qty, Double::sum);
+                    if (json.length() > 1)
+                        json.append(',');
+                    json.append('[').append(rs.getInt(1)).append(',').append(qty).append(',').append(gross)
+                            .append(',').append(vat).append(']');
+                }
             }
+            if (!left.isEmpty())
+                throw new IllegalArgumentException("Sale #" + saleId + " is voided or has no item " +
+                        left.keySet().iterator().next());
+        }
+        return json.append(']').toString();
+    }
+
+    private static String idsJson(Collection<Integer> ids) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int id : ids) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append(id);
         }
+        return sb.append(']').toString();
     }
 
-    // History: list sales by date range (inclusive)
+    // History: list sales by local date range (inclusive)
     public List<SaleSummary> listSales(LocalDate from, LocalDate to) {
-        String sql = "SELECT id, datetime, total_gross, total_vat, payment_method " +
-                "FROM sale WHERE date(datetime) BETWEEN ? AND ? " +
+        String sql = "SELECT " + SUMMARY_COLUMNS + " FROM sale WHERE datetime >= ? AND datetime < ? " +
                 "ORDER BY datetime DESC, id DESC";
         List<SaleSummary> out = new ArrayList<>();
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, from.toString());
-            ps.setString(2, to.toString());
+                PreparedStatement ps = Database.prepare(conn, sql)) {
+            ps.setString(1, startOf(from));
+            ps.setString(2, startOf(to.plusDays(1)));
             try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    SaleSummary s = new SaleSummary();
-                    s.id = rs.getInt("id");
-                    s.datetime = rs.getString("datetime");
-                    s.totalGross = rs.getDouble("total_gross");
-                    s.totalVat = rs.getDouble("total_vat");
-                    s.paymentMethod = rs.getString("payment_method");
-                    out.add(s);
-                }
+                while (rs.next())
+                    out.add(summary(rs));
             }
         } catch (SQLException e) {
             throw new RuntimeException("listSales failed", e);
@@ -181,21 +878,25 @@ public class SaleRepo {
 
     // Details: lines for a given sale
     public List<SaleLineDetail> saleDetails(int saleId) {
-        String sql = "SELECT p.name AS product_name, p.barcode, si.qty, si.unit_price_gross, si.vat_rate " +
+        String sql = "SELECT si.id, si.product_id, p.name AS product_name, p.barcode, si.qty, si.unit_price_gross, " +
+                "si.vat_rate, si.returned_qty " +
                 "FROM sale_item si JOIN product p ON p.id = si.product_id " +
                 "WHERE si.sale_id = ? ORDER BY si.rowid";
         List<SaleLineDetail> out = new ArrayList<>();
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setInt(1, saleId);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     SaleLineDetail d = new SaleLineDetail();
+                    d.itemId = rs.getInt("id");
+                    d.productId = rs.getInt("product_id");
                     d.productName = rs.getString("product_name");
                     d.barcode = rs.getString("barcode");
                     d.qty = rs.getDouble("qty");
                     d.unitPriceGross = rs.getDouble("unit_price_gross");
                     d.vatRate = rs.getDouble("vat_rate");
+                    d.returnedQty = rs.getDouble("returned_qty");
                     out.add(d);
                 }
             }
@@ -206,24 +907,95 @@ public class SaleRepo {
     }
 
     public SaleSummary getSale(int saleId) {
-        String sql = "SELECT id, datetime, total_gross, total_vat, payment_method FROM sale WHERE id=?";
+        String sql = "SELECT " + SUMMARY_COLUMNS + " FROM sale WHERE id=?";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setInt(1, saleId);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    SaleSummary s = new SaleSummary();
-                    s.id = rs.getInt("id");
-                    s.datetime = rs.getString("datetime");
-                    s.totalGross = rs.getDouble("total_gross");
-                    s.totalVat = rs.getDouble("total_vat");
-                    s.paymentMethod = rs.getString("payment_method");
-                    return s;
-                }
+                if (rs.next())
+                    return summary(rs);
             }
         } catch (SQLException e) {
             throw new RuntimeException("getSale failed", e);
         }
         return null;
     }
+
+    // Sales, voids and returns of one day (same day boundaries as listSales),
+    // each signed by its effect on the day's takings; the day is [?1, ?2)
+    public ZReport zReport(LocalDate day) {
+        String saleEvents = "SELECT payment_method AS method, total_gross_mil AS gross, " +
+                "total_vat_mil AS vat FROM sale WHERE datetime >= ?1 AND datetime < ?2 " +
+                "UNION ALL SELECT s.payment_method, -r.gross_mil, -r.vat_mil FROM sale_return r " +
+                "JOIN sale_item si ON si.id = r.sale_item_id JOIN sale s ON s.id = si.sale_id " +
+                "WHERE r.datetime >= ?1 AND r.datetime < ?2 " +
+                "UNION ALL SELECT payment_method, returned_gross_mil - total_gross_mil, " +
+                "returned_vat_mil - total_vat_mil FROM sale WHERE voided_at >= ?1 AND voided_at < ?2";
+        String lineEvents = "SELECT si.vat_rate AS rate, si.line_gross_mil AS gross, si.line_vat_mil AS vat " +
+                "FROM sale_item si JOIN sale s ON s.id = si.sale_id WHERE s.datetime >= ?1 AND s.datetime < ?2 " +
+                "UNION ALL SELECT si.vat_rate, -r.gross_mil, -r.vat_mil FROM sale_return r " +
+                "JOIN sale_item si ON si.id = r.sale_item_id WHERE r.datetime >= ?1 AND r.datetime < ?2 " +
+                "UNION ALL SELECT si.vat_rate, si.returned_gross_mil - si.line_gross_mil, " +
+                "si.returned_vat_mil - si.line_vat_mil FROM sale_item si JOIN sale s ON s.id = si.sale_id " +
+                "WHERE s.voided_at >= ?1 AND s.voided_at < ?2";
+        String countSql = "SELECT COUNT(*) FROM sale WHERE datetime >= ?1 AND datetime < ?2 " +
+                "AND (voided_at IS NULL OR voided_at >= ?2)";
+        String totalsSql = "SELECT COALESCE(SUM(gross), 0), COALESCE(SUM(vat), 0), " +
+                "COALESCE(SUM(CASE WHEN method = 'CASH' THEN gross END), 0), " +
+                "COALESCE(SUM(CASE WHEN method = 'CARD' THEN gross END), 0) FROM (" + saleEvents + ")";
+        String bandsSql = "SELECT rate, SUM(gross), SUM(vat) FROM (" + lineEvents + ") GROUP BY rate ORDER BY rate";
+        String start = startOf(day);
+        String end = startOf(day.plusDays(1));
+        try (Connection conn = Database.getConnection();
+                PreparedStatement countPs = Database.prepare(conn, countSql);
+                PreparedStatement totals = Database.prepare(conn, totalsSql);
+                PreparedStatement bandsPs = Database.prepare(conn, bandsSql)) {
+            List<VatBand> bands = new ArrayList<>();
+            bandsPs.setString(1, start);
+            bandsPs.setString(2, end);
+            try (ResultSet rs = bandsPs.executeQuery()) {
+                while (rs.next())
+                    bands.add(new VatBand(rs.getDouble(1), rs.getLong(2), rs.getLong(3)));
+            }
+            countPs.setString(1, start);
+            countPs.setString(2, end);
+            int count;
+            try (ResultSet rs = countPs.executeQuery()) {
+                rs.next();
+                count = rs.getInt(1);
+            }
+            totals.setString(1, start);
+            totals.setString(2, end);
+            try (ResultSet rs = totals.executeQuery()) {
+                rs.next();
+                return new ZReport(day, count, rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), bands);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("zReport failed", e);
+        }
+    }
+
+    // Start of the local day as a stored (UTC) time, for range scans on the indexed columns
+    private static String startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC)
+                .format(SQL_TIME);
+    }
+
+    private static SaleSummary summary(ResultSet rs) throws SQLException {
+        SaleSummary s = new SaleSummary();
+        s.id = rs.getInt("id");
+        s.datetime = rs.getString("datetime");
+        s.totalGrossMillimes = rs.getLong("total_gross_mil");
+        s.totalVatMillimes = rs.getLong("total_vat_mil");
+        s.totalGross = Money.toDouble(s.totalGrossMillimes);
+        s.totalVat = Money.toDouble(s.totalVatMillimes);
+        s.paymentMethod = rs.getString("payment_method");
+        s.registerId = rs.getString("register_id");
+        int seq = rs.getInt("register_seq");
+        s.registerSeq = rs.wasNull() ? null : seq;
+        s.status = rs.getString("status");
+        s.returnedGrossMillimes = rs.getLong("returned_gross_mil");
+        s.returnedVatMillimes = rs.getLong("returned_vat_mil");
+        return s;
+    }
 }
@@ -4,7 +4,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Types;
 
 import com.superette.db.Database;
@@ -12,35 +11,10 @@ import com.superette.model.Settings;
 
 public class SettingsRepo {
 
-    public void ensureTable() {
-        String sql = "CREATE TABLE IF NOT EXISTS settings (" +
-                "id INTEGER PRIMARY KEY CHECK (id = 1)," +
-                "store_name TEXT," +
-                "address TEXT," +
-                "phone TEXT," +
-                "tax_id TEXT," +
-                "currency TEXT," +
-                "default_vat_rate REAL," +
-                "receipt_footer TEXT" +
-                ")";
-        try (Connection conn = Database.getConnection();
-                Statement st = conn.createStatement()) {
-            st.execute(sql);
-            // Ensure one row exists
-            try (PreparedStatement ps = conn.prepareStatement(
-                    "INSERT OR IGNORE INTO settings(id, currency, default_vat_rate) VALUES(1, 'TND', 19.0)")) {
-                ps.executeUpdate();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("ensureTable failed", e);
-        }
-    }
-
     public Settings load() {
-        ensureTable();
         String sql = "SELECT store_name, address, phone, tax_id, currency, default_vat_rate, receipt_footer FROM settings WHERE id=1";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql);
+                PreparedStatement ps = Database.prepare(conn, sql);
                 ResultSet rs = ps.executeQuery()) {
             Settings s = new Settings();
             if (rs.next()) {
@@ -60,10 +34,9 @@ public class SettingsRepo {
     }
 
     public void save(Settings s) {
-        ensureTable();
         String sql = "UPDATE settings SET store_name=?, address=?, phone=?, tax_id=?, currency=?, default_vat_rate=?, receipt_footer=? WHERE id=1";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setString(1, nullToEmpty(s.getStoreName()));
             ps.setString(2, nullToEmpty(s.getAddress()));
             ps.setString(3, nullToEmpty(s.getPhone()));
@@ -6,6 +6,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.service.CatalogCache;
 
 public class StockRepo {
 
@@ -16,37 +18,36 @@ public class StockRepo {
         String update = "UPDATE product SET stock_qty = stock_qty + ? WHERE id = ?";
         String movement = "INSERT INTO stock_movement(product_id, type, qty, datetime, reference, note) " +
                 "VALUES(?, 'RECEIPT', ?, datetime('now'), ?, ?)";
-        try (Connection conn = Database.getConnection()) {
-            conn.setAutoCommit(false);
-            try (PreparedStatement ps1 = conn.prepareStatement(update);
-                    PreparedStatement ps2 = conn.prepareStatement(movement)) {
-                ps1.setDouble(1, qty);
-                ps1.setInt(2, productId);
-                ps1.executeUpdate();
+        try {
+            Database.write(conn -> {
+                try (PreparedStatement ps1 = Database.prepare(conn, update);
+                        PreparedStatement ps2 = Database.prepare(conn, movement)) {
+                    ps1.setDouble(1, qty);
+                    ps1.setInt(2, productId);
+                    ps1.executeUpdate();
 
-                ps2.setInt(1, productId);
-                ps2.setDouble(2, qty);
-                ps2.setString(3, reference);
-                ps2.setString(4, note);
-                ps2.executeUpdate();
-
-                conn.commit();
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
-            }
+                    ps2.setInt(1, productId);
+                    ps2.setDouble(2, qty);
+                    ps2.setString(3, reference);
+                    ps2.setString(4, note);
+                    ps2.executeUpdate();
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("addReceipt failed", e);
         }
+        CatalogCache.get().adjustStock(productId, qty);
     }
 
     // Helper to find product by barcode or name for quick entry
     public Integer findProductIdByBarcodeOrName(String barcodeOrName) {
+        Product cached = CatalogCache.get().findByBarcodeOrName(barcodeOrName);
+        if (cached != null)
+            return cached.getId();
         String sql = "SELECT id FROM product WHERE barcode = ? OR name = ? LIMIT 1";
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = Database.prepare(conn, sql)) {
             ps.setString(1, barcodeOrName);
             ps.setString(2, barcodeOrName);
             try (ResultSet rs = ps.executeQuery()) {
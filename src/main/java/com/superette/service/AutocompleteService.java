@@ -0,0 +1,218 @@
+package com.superette.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+import com.superette.repo.ProductRepo.SearchMode;
+
+// Autocomplete front end shared by the cash register and stock entry screens.
+// Each screen's service caches results per search mode and query in a small
+// LRU, dropped whenever the catalog changes (stock included, since results
+// carry it). When a query extends a cached one whose result set was complete,
+// the answer is filtered from that set in memory instead of searching again. Lookups that
+// do need a search run on a background thread; a newer keystroke cancels the
+// older lookup and stale answers are never delivered.
+public class AutocompleteService {
+    static final int MAX_ENTRIES = 128;
+    static final int CANDIDATES = 500; // fetched per search so later keystrokes can narrow
+
+    private static final class Entry {
+        final List<Product> results;  // best first, at most CANDIDATES
+        final boolean narrowable;     // complete substring result set
+        final long version;           // CatalogCache.version() when fetched
+
+        Entry(List<Product> results, boolean narrowable, long version) {
+            this.results = results;
+            this.narrowable = narrowable;
+            this.version = version;
+        }
+    }
+
+    private static final ExecutorService LOOKUPS = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autocomplete");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Entry> cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong narrowed = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final ProductRepo repo;
+    private final Executor deliver;
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pending;
+
+    // deliver runs result callbacks (Platform::runLater for a JavaFX screen)
+    public AutocompleteService(Executor deliver) {
+        this(new ProductRepo(), deliver);
+    }
+
+    public AutocompleteService(ProductRepo repo, Executor deliver) {
+        this.repo = repo;
+        this.deliver = deliver;
+    }
+
+    // Answers at most `limit` products for q. Cached and narrowed answers call
+    // onResult immediately on the calling thread; others arrive through the
+    // deliver executor unless a newer suggest() or cancel() came first.
+    public void suggest(String query, int limit, Consumer<List<Product>> onResult) {
+        String q = key(query);
+        long gen = generation.incrementAndGet();
+        cancelPending();
+        if (q.isEmpty()) {
+            onResult.accept(List.of());
+            return;
+        }
+        List<Product> cached = fromCache(q, limit);
+        if (cached != null) {
+            onResult.accept(cached);
+            return;
+        }
+        synchronized (this) {
+            pending = LOOKUPS.submit(() -> {
+                if (generation.get() != gen)
+                    return; // superseded while queued
+                List<Product> found = lookup(q, limit);
+                deliver.execute(() -> {
+                    if (generation.get() == gen)
+                        onResult.accept(found);
+                });
+            });
+        }
+    }
+
+    // Drops any lookup in flight (field cleared, popup closed)
+    public void cancel() {
+        generation.incrementAndGet();
+        cancelPending();
+    }
+
+    // Blocking variant of suggest for callers already off the UI thread
+    public List<Product> lookup(String query, int limit) {
+        String q = key(query);
+        if (q.isEmpty())
+            return List.of();
+        List<Product> cached = fromCache(q, limit);
+        if (cached != null)
+            return cached;
+        long version = CatalogCache.get().version();
+        List<Product> found = repo.searchByQuery(q, CANDIDATES);
+        searches.incrementAndGet();
+        // Only a complete substring result can be narrowed: short queries match word
+        // prefixes only, fuzzy fallbacks do not shrink as the query grows, and FTS
+        // matches tokens rather than substrings
+        boolean narrowable = found.size() < CANDIDATES && q.length() >= 3 && repo.searchMode() != SearchMode.FTS
+                && allMatch(found, q);
+        synchronized (cache) {
+            cache.put(cacheKey(q), new Entry(found, narrowable, version));
+        }
+        return head(found, limit);
+    }
+
+    public double hitRate() {
+        long served = hits.get() + narrowed.get();
+        long total = served + searches.get();
+        return total == 0 ? 0.0 : (double) served / total;
+    }
+
+    private List<Product> fromCache(String q, int limit) {
+        long version = CatalogCache.get().version();
+        synchronized (cache) {
+            Entry exact = cache.get(cacheKey(q));
+            if (exact != null && exact.version == version) {
+                hits.incrementAndGet();
+                return head(exact.results, limit);
+            }
+            // Longest cached prefix of q whose complete result set can be narrowed
+            for (int len = q.length() - 1; len >= 3; len--) {
+                Entry e = cache.get(cacheKey(q.substring(0, len)));
+                if (e == null || e.version != version)
+                    continue;
+                if (!e.narrowable)
+                    return null;
+                List<Product> narrowedSet = narrow(e.results, q);
+                if (narrowedSet.isEmpty() && repo.searchMode() == SearchMode.FUZZY)
+                    return null; // let the fuzzy fallback have a go
+                cache.put(cacheKey(q), new Entry(narrowedSet, true, version));
+                narrowed.incrementAndGet();
+                return head(narrowedSet, limit);
+            }
+        }
+        return null;
+    }
+
+    private static List<Product> narrow(List<Product> superset, String q) {
+        List<Ranked> kept = new ArrayList<>();
+        for (Product p : superset) {
+            int rank = TrigramIndex.rank(p.getName(), p.getBarcode(), q);
+            if (rank >= 0)
+                kept.add(new Ranked(rank, p));
+        }
+        kept.sort(RANKED_ORDER);
+        List<Product> out = new ArrayList<>(kept.size());
+        for (Ranked r : kept)
+            out.add(r.product);
+        return out;
+    }
+
+    private static final class Ranked {
+        final int rank;
+        final Product product;
+
+        Ranked(int rank, Product product) {
+            this.rank = rank;
+            this.product = product;
+        }
+    }
+
+    // Same order as the index: rank, then name, then id
+    private static final Comparator<Ranked> RANKED_ORDER = Comparator.<Ranked>comparingInt(r -> r.rank)
+            .thenComparing(r -> r.product.getName(), Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(r -> r.product.getId());
+
+    private static boolean allMatch(List<Product> found, String q) {
+        for (Product p : found) {
+            if (TrigramIndex.rank(p.getName(), p.getBarcode(), q) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static List<Product> head(List<Product> list, int limit) {
+        return list.size() <= limit ? list : list.subList(0, limit);
+    }
+
+    private synchronized void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    // Index, FTS and fuzzy searches answer the same query differently
+    private String cacheKey(String q) {
+        return repo.searchMode() + ":" + q;
+    }
+
+    private static String key(String query) {
+        return query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+    }
+}
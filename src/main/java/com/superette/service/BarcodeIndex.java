@@ -0,0 +1,146 @@
+package com.superette.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Barcode -> product id map. EAN-8, UPC-A and EAN-13 codes with a valid check
+// digit are stored as numeric long keys in an open-addressing table (linear
+// probing, backward-shift deletion), so resolving a scanned code allocates
+// nothing. Anything else falls back to a plain String map.
+// Not thread-safe: the owner synchronizes access.
+final class BarcodeIndex {
+    static final int NOT_FOUND = -1;
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] ids;
+    private int numericSize;
+    private final Map<String, Integer> other = new HashMap<>();
+
+    BarcodeIndex() {
+        this(1024);
+    }
+
+    BarcodeIndex(int expected) {
+        int cap = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[cap];
+        ids = new int[cap];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Numeric key for a GTIN-8/12/13 with a valid check digit, or -1.
+    // UPC-A and its zero-padded EAN-13 form yield the same key.
+    static long normalize(CharSequence code) {
+        int n = code.length();
+        if (n != 8 && n != 12 && n != 13)
+            return -1;
+        long value = 0;
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            int d = code.charAt(i) - '0';
+            if (d < 0 || d > 9)
+                return -1;
+            value = value * 10 + d;
+            if (i < n - 1) {
+                // weights alternate 3,1,3,... leftwards from the check digit
+                sum += ((n - 1 - i) % 2 == 1) ? d * 3 : d;
+            }
+        }
+        int check = (10 - sum % 10) % 10;
+        return check == code.charAt(n - 1) - '0' ? value : -1;
+    }
+
+    // Keeps the existing mapping when the barcode is already indexed
+    void putIfAbsent(String barcode, int id) {
+        long key = normalize(barcode);
+        if (key < 0) {
+            other.putIfAbsent(barcode, id);
+            return;
+        }
+        if ((numericSize + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+        int slot = slotOf(key, keys);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            ids[slot] = id;
+            numericSize++;
+        }
+    }
+
+    int get(CharSequence barcode) {
+        long key = normalize(barcode);
+        if (key < 0) {
+            Integer id = other.get(barcode.toString());
+            return id == null ? NOT_FOUND : id;
+        }
+        int slot = slotOf(key, keys);
+        return keys[slot] == EMPTY ? NOT_FOUND : ids[slot];
+    }
+
+    // Removes the mapping only if it still points to the given product
+    void remove(String barcode, int id) {
+        long key = normalize(barcode);
+        if (key < 0) {
+            other.remove(barcode, id);
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = slotOf(key, keys);
+        if (keys[slot] == EMPTY || ids[slot] != id)
+            return;
+        // Backward-shift: pull later entries of the probe run into the hole
+        int hole = slot;
+        int i = (hole + 1) & mask;
+        while (keys[i] != EMPTY) {
+            int home = hash(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                ids[hole] = ids[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        numericSize--;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        numericSize = 0;
+        other.clear();
+    }
+
+    int size() {
+        return numericSize + other.size();
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new long[capacity];
+        ids = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i], keys);
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+
+    // Slot holding the key, or the empty slot where it would go
+    private static int slotOf(long key, long[] table) {
+        int mask = table.length - 1;
+        int i = hash(key) & mask;
+        while (table[i] != EMPTY && table[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
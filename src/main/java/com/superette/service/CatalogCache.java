@@ -0,0 +1,299 @@
+package com.superette.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+// In-memory copy of the product catalog, loaded once and kept current by the
+// repositories after each committed write. Lookups never touch SQLite.
+// Writes by other registers sharing the file are picked up by sync(), which
+// the app runs every SYNC_MILLIS: it reads the rows whose row_version moved.
+// With the fts and like search modes nothing is held: lookups answer null so
+// the repositories go to SQL, and only version() is kept moving.
+// Lookups hand out copies, so a caller editing a Product (a form, a cart)
+// cannot change the cached one; the cache replaces its own instances.
+// Opening another database resets it (Database.onInit), since it belongs to
+// the database that was open.
+public final class CatalogCache {
+    private static final Logger log = LoggerFactory.getLogger(CatalogCache.class);
+    private static final long SYNC_MILLIS = 1_000;
+    private static final CatalogCache INSTANCE = new CatalogCache(new ProductRepo());
+
+    static {
+        Database.onInit(INSTANCE::invalidateAll);
+    }
+
+    private final ProductRepo source;
+    private final boolean holdsCatalog; // search served from memory (index, fuzzy)
+    private final Map<Integer, Product> byId = new ConcurrentHashMap<>();
+    private final BarcodeIndex byBarcode = new BarcodeIndex(); // guarded by itself
+    private final Map<String, Integer> byName = new ConcurrentHashMap<>();
+    private final TrigramIndex search = new TrigramIndex(); // active products only
+    private final FuzzyIndex fuzzy = new FuzzyIndex();      // active products only
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong version = new AtomicLong(); // bumped on every change to a cached product
+    private volatile boolean loaded;
+    private long generation; // bumped by invalidateAll, so a sync that raced it is dropped
+    private long syncedTo;   // row_version the cache reflects
+    private long rereadFrom; // syncedTo of the round before
+    private ScheduledExecutorService syncer;
+
+    CatalogCache(ProductRepo source) {
+        this.source = source;
+        this.holdsCatalog = source.searchMode() == ProductRepo.SearchMode.INDEX
+                || source.searchMode() == ProductRepo.SearchMode.FUZZY;
+    }
+
+    public static CatalogCache get() {
+        return INSTANCE;
+    }
+
+    public Product findById(int id) {
+        if (!holdsCatalog)
+            return null;
+        ensureLoaded();
+        return copyOf(count(byId.get(id)));
+    }
+
+    // Same precedence as the SQL lookup: barcode first, then exact name
+    public Product findByBarcodeOrName(String key) {
+        if (key == null || !holdsCatalog)
+            return null;
+        ensureLoaded();
+        int id;
+        synchronized (byBarcode) {
+            id = byBarcode.get(key);
+        }
+        if (id == BarcodeIndex.NOT_FOUND) {
+            Integer named = byName.get(key);
+            id = named == null ? BarcodeIndex.NOT_FOUND : named;
+        }
+        return copyOf(count(id == BarcodeIndex.NOT_FOUND ? null : byId.get(id)));
+    }
+
+    // Autocomplete over active products (substring of name or barcode), best first
+    public List<Product> search(String query, int limit) {
+        if (!holdsCatalog)
+            return List.of();
+        ensureLoaded();
+        List<Product> out = new ArrayList<>();
+        for (int id : search.search(query, limit)) {
+            Product p = byId.get(id);
+            if (p != null)
+                out.add(p.copy());
+        }
+        return out;
+    }
+
+    // Typo-tolerant name search over active products, closest first
+    public List<Product> fuzzySearch(String query, int limit) {
+        if (!holdsCatalog)
+            return List.of();
+        ensureLoaded();
+        List<Product> out = new ArrayList<>();
+        for (int id : fuzzy.search(query, limit)) {
+            Product p = byId.get(id);
+            if (p != null)
+                out.add(p.copy());
+        }
+        return out;
+    }
+
+    // After insert/update of a product
+    public synchronized void put(Product p) {
+        if (p == null || p.getId() == null)
+            return;
+        if (!holdsCatalog) {
+            version.incrementAndGet();
+            return;
+        }
+        ensureLoaded();
+        replace(p);
+        version.incrementAndGet();
+    }
+
+    // When a lookup this cache missed was answered from the DB
+    public void resolved(Product p) {
+        if (holdsCatalog)
+            put(p);
+    }
+
+    // After a committed stock change (sale, receipt, adjustment)
+    public synchronized void adjustStock(int productId, double delta) {
+        if (!holdsCatalog)
+            version.incrementAndGet();
+        if (!loaded)
+            return;
+        Product cur = byId.get(productId);
+        if (cur == null)
+            return;
+        Product next = cur.copy();
+        next.setStockQty(Math.max(0.0, cur.getStockQty() + delta)); // like the stock_qty >= 0 check
+        byId.put(productId, next);
+        version.incrementAndGet();
+    }
+
+    // Reads the products changed since the last round (another register's sale,
+    // price change or rename) into the cache. The previous round's rows are read
+    // again: a stock move committed just before that round may have reached the
+    // cache through adjustStock only after it, and so been counted twice.
+    public void sync() {
+        if (!holdsCatalog) {
+            long current = source.currentVersion();
+            synchronized (this) {
+                if (current != syncedTo)
+                    version.incrementAndGet();
+                syncedTo = current;
+            }
+            return;
+        }
+        long gen;
+        long from;
+        synchronized (this) {
+            if (!loaded)
+                return; // the next lookup loads the current catalog anyway
+            gen = generation;
+            from = rereadFrom;
+        }
+        ProductRepo.Changes changes = source.findChangedSince(from);
+        synchronized (this) {
+            if (gen != generation)
+                return;
+            for (Product p : changes.products)
+                replace(p);
+            if (!changes.products.isEmpty())
+                version.incrementAndGet();
+            rereadFrom = syncedTo;
+            syncedTo = Math.max(syncedTo, changes.version);
+        }
+    }
+
+    // Runs sync() every SYNC_MILLIS from now on; the app calls it once at
+    // startup (tests call sync() themselves)
+    public synchronized void startSync() {
+        if (syncer != null)
+            return;
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (RuntimeException e) {
+                log.warn("Catalog sync failed, retrying", e); // e.g. database locked; must not end the schedule
+            }
+        }, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopSync() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+            syncer = null;
+        }
+    }
+
+    // Drops everything; the next lookup reloads the catalog
+    public synchronized void invalidateAll() {
+        loaded = false;
+        generation++;
+        version.incrementAndGet();
+        byId.clear();
+        synchronized (byBarcode) {
+            byBarcode.clear();
+        }
+        byName.clear();
+        search.clear();
+        fuzzy.clear();
+    }
+
+    // Changes whenever cached search results may be stale, stock moves included
+    public long version() {
+        return version.get();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private static Product copyOf(Product p) {
+        return p == null ? null : p.copy();
+    }
+
+    private Product count(Product p) {
+        (p == null ? misses : hits).incrementAndGet();
+        return p;
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        synchronized (this) {
+            if (loaded)
+                return;
+            ProductRepo.Changes all = source.findChangedSince(-1); // every row, with the version read
+            for (Product p : all.products) {
+                byId.put(p.getId(), p);
+                index(p);
+            }
+            syncedTo = all.version;
+            rereadFrom = all.version;
+            loaded = true;
+        }
+    }
+
+    private void replace(Product p) {
+        Product copy = p.copy();
+        unindex(byId.put(copy.getId(), copy));
+        index(copy);
+    }
+
+    private void index(Product p) {
+        if (p.getBarcode() != null) {
+            synchronized (byBarcode) {
+                byBarcode.putIfAbsent(p.getBarcode(), p.getId());
+            }
+        }
+        if (p.getName() != null)
+            byName.putIfAbsent(p.getName(), p.getId());
+        if (p.isActive()) {
+            search.put(p.getId(), p.getName(), p.getBarcode());
+            fuzzy.put(p.getId(), p.getName());
+        } else {
+            search.remove(p.getId());
+            fuzzy.remove(p.getId());
+        }
+    }
+
+    private void unindex(Product old) {
+        if (old == null)
+            return;
+        if (old.getBarcode() != null) {
+            synchronized (byBarcode) {
+                byBarcode.remove(old.getBarcode(), old.getId());
+            }
+        }
+        if (old.getName() != null)
+            byName.remove(old.getName(), old.getId());
+    }
+}
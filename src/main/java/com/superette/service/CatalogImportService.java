@@ -0,0 +1,236 @@
+package com.superette.service;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+// Bulk catalog import from a supplier CSV. The file is streamed record by
+// record and flushed to ProductRepo.upsertBatch every BATCH_SIZE valid rows, so
+// memory stays flat whatever the file size. Rows are matched on barcode, or on
+// the exact name when they have none, so importing a file again updates.
+//
+// Columns are found by header name (English or French, case and accents
+// ignored); name and price are required, the rest default like the Add form.
+public class CatalogImportService {
+    static final int BATCH_SIZE = 2000;
+    static final int MAX_REJECTED = 200; // details kept; the count is always exact
+
+    // Called after each committed batch
+    public interface Progress {
+        void update(long rowsRead, long bytesRead);
+    }
+
+    public static class Rejected {
+        public final long line;
+        public final String reason;
+
+        public Rejected(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + reason;
+        }
+    }
+
+    public static class Result {
+        public long rowsRead;
+        public long inserted;
+        public long updated;
+        public long rejectedCount;
+        public final List<Rejected> rejected = new ArrayList<>();
+    }
+
+    private enum Column {
+        NAME("name", "nom", "designation", "libelle", "product", "produit"),
+        BARCODE("barcode", "ean", "gtin", "codebarre", "codebarres", "code"),
+        PRICE("price", "pricegross", "prix", "prixttc", "prixvente", "pv"),
+        VAT("vat", "vatrate", "tva"),
+        STOCK("stock", "stockqty", "qty", "quantity", "quantite"),
+        THRESHOLD("threshold", "reorderthreshold", "seuil"),
+        COST("cost", "costprice", "prixachat"),
+        ACTIVE("active", "actif");
+
+        final String[] aliases;
+
+        Column(String... aliases) {
+            this.aliases = aliases;
+        }
+    }
+
+    private final ProductRepo repo;
+
+    public CatalogImportService() {
+        this(new ProductRepo());
+    }
+
+    public CatalogImportService(ProductRepo repo) {
+        this.repo = repo;
+    }
+
+    public Result importCsv(Path file, double defaultVat, Progress progress) throws IOException {
+        try (CountingInputStream counted = new CountingInputStream(Files.newInputStream(file));
+                CsvReader csv = new CsvReader(new BufferedReader(
+                        new InputStreamReader(counted, StandardCharsets.UTF_8), 64 * 1024))) {
+            return importCsv(csv, counted, defaultVat, progress);
+        } finally {
+            // Batches bypass the cache; reload it once rather than per row
+            CatalogCache.get().invalidateAll();
+        }
+    }
+
+    private Result importCsv(CsvReader csv, CountingInputStream counted, double defaultVat, Progress progress)
+            throws IOException {
+        List<String> header = csv.next();
+        if (header == null)
+            throw new IllegalArgumentException("The file is empty");
+        Map<Column, Integer> columns = mapHeader(header);
+        if (!columns.containsKey(Column.NAME) || !columns.containsKey(Column.PRICE))
+            throw new IllegalArgumentException("The header needs at least a name and a price column");
+
+        boolean decimalComma = csv.delimiter() != ',';
+        Result result = new Result();
+        List<Product> batch = new ArrayList<>(BATCH_SIZE);
+        List<String> record;
+        while ((record = csv.next()) != null) {
+            result.rowsRead++;
+            try {
+                batch.add(toProduct(record, columns, decimalComma, defaultVat));
+            } catch (IllegalArgumentException e) {
+                result.rejectedCount++;
+                if (result.rejected.size() < MAX_REJECTED)
+                    result.rejected.add(new Rejected(csv.recordLine(), e.getMessage()));
+            }
+            if (batch.size() == BATCH_SIZE) {
+                flush(batch, result);
+                if (progress != null)
+                    progress.update(result.rowsRead, counted.count);
+            }
+        }
+        flush(batch, result);
+        if (progress != null)
+            progress.update(result.rowsRead, counted.count);
+        return result;
+    }
+
+    private void flush(List<Product> batch, Result result) {
+        if (batch.isEmpty())
+            return;
+        ProductRepo.UpsertCounts counts = repo.upsertBatch(batch);
+        result.inserted += counts.inserted;
+        result.updated += counts.updated;
+        batch.clear();
+    }
+
+    private static Map<Column, Integer> mapHeader(List<String> header) {
+        Map<String, Column> byAlias = new HashMap<>();
+        for (Column c : Column.values()) {
+            for (String a : c.aliases)
+                byAlias.put(a, c);
+        }
+        Map<Column, Integer> out = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            Column c = byAlias.get(headerKey(header.get(i)));
+            if (c != null)
+                out.putIfAbsent(c, i);
+        }
+        return out;
+    }
+
+    // "Prix d'achat", "cost_price", "Code-Barres" -> "prixdachat", "costprice", "codebarres"
+    private static String headerKey(String s) {
+        String folded = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return folded.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+    }
+
+    private static Product toProduct(List<String> record, Map<Column, Integer> columns, boolean decimalComma,
+            double defaultVat) {
+        String name = cell(record, columns, Column.NAME);
+        if (name == null)
+            throw new IllegalArgumentException("missing name");
+        Product p = new Product();
+        p.setName(name);
+        p.setBarcode(cell(record, columns, Column.BARCODE));
+        p.setPriceGross(number(record, columns, Column.PRICE, null, decimalComma));
+        p.setVatRate(number(record, columns, Column.VAT, defaultVat, decimalComma));
+        p.setStockQty(number(record, columns, Column.STOCK, 0.0, decimalComma));
+        p.setReorderThreshold(number(record, columns, Column.THRESHOLD, 0.0, decimalComma));
+        String cost = cell(record, columns, Column.COST);
+        p.setCostPrice(cost == null ? null : number(record, columns, Column.COST, null, decimalComma));
+        String active = cell(record, columns, Column.ACTIVE);
+        p.setActive(active == null || !(active.equals("0") || active.equalsIgnoreCase("false")
+                || active.equalsIgnoreCase("non") || active.equalsIgnoreCase("no")));
+        return p;
+    }
+
+    // Trimmed cell text, or null when the column is absent or blank
+    private static String cell(List<String> record, Map<Column, Integer> columns, Column c) {
+        Integer i = columns.get(c);
+        if (i == null || i >= record.size())
+            return null;
+        String v = record.get(i).trim();
+        return v.isEmpty() ? null : v;
+    }
+
+    private static double number(List<String> record, Map<Column, Integer> columns, Column c, Double fallback,
+            boolean decimalComma) {
+        String v = cell(record, columns, c);
+        if (v == null) {
+            if (fallback == null)
+                throw new IllegalArgumentException("missing " + c.aliases[0]);
+            return fallback;
+        }
+        if (decimalComma)
+            v = v.replace(',', '.');
+        double d;
+        try {
+            d = Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad " + c.aliases[0] + " '" + v + "'");
+        }
+        if (d < 0 || Double.isNaN(d) || Double.isInfinite(d))
+            throw new IllegalArgumentException(c.aliases[0] + " must be >= 0");
+        return d;
+    }
+
+    // Bytes consumed so far, for a progress fraction against the file size
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.superette.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Minimal streaming RFC 4180 reader: quoted fields, doubled quotes, line breaks
+// inside quotes, CRLF and a leading BOM. The delimiter (',', ';' or tab) is
+// guessed from the first line. Holds one record in memory at a time.
+final class CsvReader implements Closeable {
+    private final BufferedReader in;
+    private final char delimiter;
+    private final StringBuilder field = new StringBuilder();
+    private long line = 1;       // physical line the reader is on
+    private long recordLine;     // physical line the last record started on
+    private boolean eof;
+
+    CsvReader(BufferedReader in) throws IOException {
+        this.in = in;
+        in.mark(1);
+        if (in.read() != '\uFEFF')
+            in.reset();
+        this.delimiter = sniffDelimiter(in);
+    }
+
+    char delimiter() {
+        return delimiter;
+    }
+
+    long recordLine() {
+        return recordLine;
+    }
+
+    // Next record, or null at end of input; blank lines are skipped
+    List<String> next() throws IOException {
+        while (!eof) {
+            recordLine = line;
+            List<String> record = readRecord();
+            if (record != null && !(record.size() == 1 && record.get(0).isEmpty()))
+                return record;
+        }
+        return null;
+    }
+
+    private List<String> readRecord() throws IOException {
+        List<String> out = new ArrayList<>();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean any = false;
+        int c;
+        while ((c = in.read()) != -1) {
+            any = true;
+            if (quoted) {
+                if (c == '"') {
+                    in.mark(1);
+                    if (in.read() == '"') {
+                        field.append('"');
+                    } else {
+                        in.reset();
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n')
+                        line++;
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter) {
+                out.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n')
+                        in.reset();
+                }
+                line++;
+                out.add(field.toString());
+                return out;
+            } else {
+                field.append((char) c);
+            }
+        }
+        eof = true;
+        if (!any)
+            return null;
+        out.add(field.toString());
+        return out;
+    }
+
+    private static char sniffDelimiter(BufferedReader in) throws IOException {
+        in.mark(64 * 1024);
+        String first = in.readLine();
+        in.reset();
+        if (first == null)
+            return ',';
+        int commas = 0, semis = 0, tabs = 0;
+        boolean quoted = false;
+        for (int i = 0; i < first.length(); i++) {
+            char c = first.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (!quoted && c == ',')
+                commas++;
+            else if (!quoted && c == ';')
+                semis++;
+            else if (!quoted && c == '\t')
+                tabs++;
+        }
+        if (tabs > commas && tabs > semis)
+            return '\t';
+        return semis > commas ? ';' : ',';
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
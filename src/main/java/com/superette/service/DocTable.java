@@ -0,0 +1,45 @@
+package com.superette.service;
+
+import java.util.Arrays;
+
+// What a search index keeps per product, in an array indexed by product id
+// (ids are dense rowids, so this beats a map). Not thread-safe: the owning
+// index guards it with its lock.
+final class DocTable<T> {
+    private Object[] docs = new Object[1024];
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        return id >= 0 && id < docs.length ? (T) docs[id] : null;
+    }
+
+    // Stores doc for id; returns the one it replaced, if any
+    T put(int id, T doc) {
+        if (id >= docs.length)
+            docs = Arrays.copyOf(docs, Math.max(id + 1, docs.length * 2));
+        T old = get(id);
+        docs[id] = doc;
+        if (old == null)
+            size++;
+        return old;
+    }
+
+    T remove(int id) {
+        T old = get(id);
+        if (old != null) {
+            docs[id] = null;
+            size--;
+        }
+        return old;
+    }
+
+    void clear() {
+        Arrays.fill(docs, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,469 @@
+package com.superette.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+// Typo-tolerant name search. Names are folded (accents, ligatures, a few
+// French/Arabic transliteration variants, doubled letters) and split into
+// words; every distinct word is stored once in a BK-tree keyed by Levenshtein
+// distance, with the ids of the products using it. A query word matches the
+// words within its edit budget (BK-tree, so only a fraction of the vocabulary
+// is compared); the last query word may also be an unfinished prefix. Products
+// must match every query word and are ranked by total distance, then name.
+// A word no product uses any more leaves the vocabulary at once; BK-trees
+// cannot unlink a node, so it stays in the tree as a dead node until dead
+// nodes outnumber live ones and the tree is rebuilt from the vocabulary.
+final class FuzzyIndex {
+    private static final int MIN_REBUILD = 64; // dead nodes tolerated however small the tree
+
+    private static final class Word {
+        final String text;
+        final Posting ids = new Posting();
+        // BK-tree children, by distance to this word
+        int[] childDist = new int[0];
+        Word[] children = new Word[0];
+
+        Word(String text) {
+            this.text = text;
+        }
+
+        boolean inTree() {
+            return !hasDigit(text);
+        }
+
+        Word child(int d) {
+            for (int i = 0; i < childDist.length; i++) {
+                if (childDist[i] == d)
+                    return children[i];
+            }
+            return null;
+        }
+
+        void addChild(int d, Word w) {
+            int n = childDist.length;
+            childDist = Arrays.copyOf(childDist, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            childDist[n] = d;
+            children[n] = w;
+        }
+    }
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final class Doc {
+        final String[] words; // folded
+        final String name;
+
+        Doc(String[] words, String name) {
+            this.words = words;
+            this.name = name == null ? "" : name;
+        }
+    }
+
+    private Word root;
+    private int treeNodes; // live and dead
+    private int deadNodes;
+    private final TreeMap<String, Word> words = new TreeMap<>(); // live words only; also serves prefix ranges
+    private final DocTable<Doc> docs = new DocTable<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    void put(int id, String name) {
+        String[] toks = tokens(name);
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            docs.put(id, new Doc(toks, name));
+            for (String t : toks)
+                word(t).ids.add(id);
+            if (deadNodes > MIN_REBUILD && deadNodes > treeNodes - deadNodes)
+                rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            if (deadNodes > MIN_REBUILD && deadNodes > treeNodes - deadNodes)
+                rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            root = null;
+            treeNodes = 0;
+            deadNodes = 0;
+            words.clear();
+            docs.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Distinct words in use, and nodes in the BK-tree (dead ones included)
+    int vocabularySize() {
+        lock.readLock().lock();
+        try {
+            return words.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int treeSize() {
+        lock.readLock().lock();
+        try {
+            return treeNodes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ids of the closest products, best first
+    List<Integer> search(String query, int limit) {
+        String[] q = tokens(query);
+        if (q.length == 0 || limit <= 0)
+            return List.of();
+        lock.readLock().lock();
+        try {
+            // Per query word: the vocabulary words it matches, with their distance
+            List<List<Match>> perWord = new ArrayList<>(q.length);
+            for (int i = 0; i < q.length; i++) {
+                List<Match> m = matches(q[i], i == q.length - 1);
+                if (m.isEmpty())
+                    return List.of();
+                perWord.add(m);
+            }
+            // Drive from the query word with the fewest candidate products
+            perWord.sort((a, b) -> Long.compare(postings(a), postings(b)));
+
+            PriorityQueue<int[]> top = new PriorityQueue<>(limit + 1, (a, b) -> compare(b, a));
+            List<Match> driver = perWord.get(0);
+            for (int m = 0; m < driver.size(); m++) {
+                Posting ids = driver.get(m).ids;
+                outer: for (int i = 0; i < ids.size; i++) {
+                    int id = ids.ids[i];
+                    int total = 0;
+                    for (int k = 0; k < perWord.size(); k++) {
+                        // for the driver, the first match holding the id owns it (no duplicates)
+                        int d = best(perWord.get(k), id, k == 0 ? m : -1);
+                        if (d < 0)
+                            continue outer;
+                        total += d;
+                    }
+                    int[] hit = { total, id };
+                    if (top.size() == limit && compare(hit, top.peek()) >= 0)
+                        continue;
+                    top.add(hit);
+                    if (top.size() > limit)
+                        top.poll();
+                }
+            }
+            int[][] hits = top.toArray(new int[0][]);
+            Arrays.sort(hits, this::compare);
+            List<Integer> out = new ArrayList<>(hits.length);
+            for (int[] h : hits)
+                out.add(h[1]);
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Smallest distance among the matches holding id, or -1. With owner >= 0,
+    // also -1 when an earlier match holds the id (it was counted there).
+    private static int best(List<Match> matches, int id, int owner) {
+        int best = -1;
+        for (int i = 0; i < matches.size(); i++) {
+            Match m = matches.get(i);
+            if (!m.ids.contains(id))
+                continue;
+            if (owner >= 0 && i < owner)
+                return -1;
+            if (best < 0 || m.distance < best)
+                best = m.distance;
+        }
+        return best;
+    }
+
+    private static long postings(List<Match> matches) {
+        long n = 0;
+        for (Match m : matches)
+            n += m.ids.size;
+        return n;
+    }
+
+    // Edit budget for a folded query word; words with digits (sizes, codes) must match exactly
+    static int budget(String w) {
+        if (w.length() < 3 || hasDigit(w))
+            return 0;
+        return w.length() < 6 ? 1 : 2;
+    }
+
+    private List<Match> matches(String q, boolean last) {
+        List<Match> out = new ArrayList<>();
+        int max = budget(q);
+        if (max == 0) {
+            Word w = words.get(q);
+            if (w != null)
+                out.add(new Match(w.ids, 0));
+        } else if (root != null) {
+            collect(root, q, max, out);
+        }
+        if (last) {
+            // Unfinished word: words starting like the query, within budget of one of their prefixes.
+            // The first letter is trusted so only a narrow slice of the vocabulary is scanned.
+            String first = max == 0 ? q : q.substring(0, 1);
+            int whole = out.size();
+            scan: for (Word w : words.subMap(first, first + Character.MAX_VALUE).values()) {
+                if (w.text.length() <= q.length())
+                    continue;
+                for (int i = 0; i < whole; i++) {
+                    if (out.get(i).ids == w.ids)
+                        continue scan; // already matched as a whole word
+                }
+                int d = max == 0 ? 0 : prefixDistance(q, w.text, max);
+                if (d <= max)
+                    out.add(new Match(w.ids, d));
+            }
+        }
+        return out;
+    }
+
+    private static void collect(Word node, String q, int max, List<Match> out) {
+        // Iterative BK-tree walk: only children whose edge distance is within
+        // [d - max, d + max] can hold matches (triangle inequality), which
+        // needs the exact distance rather than the bounded one
+        ArrayList<Word> stack = new ArrayList<>();
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            Word w = stack.remove(stack.size() - 1);
+            int d = distance(q, w.text, Integer.MAX_VALUE);
+            if (d <= max && w.ids.size > 0)
+                out.add(new Match(w.ids, d));
+            for (int i = 0; i < w.childDist.length; i++) {
+                int cd = w.childDist[i];
+                if (cd >= d - max && cd <= d + max)
+                    stack.add(w.children[i]);
+            }
+        }
+    }
+
+    private static boolean hasDigit(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isDigit(s.charAt(i)))
+                return true;
+        }
+        return false;
+    }
+
+    private int compare(int[] a, int[] b) {
+        if (a[0] != b[0])
+            return Integer.compare(a[0], b[0]);
+        int c = docs.get(a[1]).name.compareTo(docs.get(b[1]).name);
+        return c != 0 ? c : Integer.compare(a[1], b[1]);
+    }
+
+    private Word word(String t) {
+        Word w = words.get(t);
+        if (w != null)
+            return w;
+        w = new Word(t);
+        words.put(t, w);
+        if (w.inTree()) // words with digits are matched exactly or by prefix only, keep the tree small
+            plant(w);
+        return w;
+    }
+
+    private void plant(Word w) {
+        treeNodes++;
+        if (root == null) {
+            root = w;
+            return;
+        }
+        Word node = root;
+        while (true) {
+            int d = distance(w.text, node.text, Integer.MAX_VALUE);
+            Word next = node.child(d);
+            if (next == null) {
+                node.addChild(d, w);
+                return;
+            }
+            node = next;
+        }
+    }
+
+    private void rebuild() {
+        root = null;
+        treeNodes = 0;
+        deadNodes = 0;
+        for (Word w : words.values()) {
+            w.childDist = new int[0];
+            w.children = new Word[0];
+            if (w.inTree())
+                plant(w);
+        }
+    }
+
+    private void removeLocked(int id) {
+        Doc old = docs.remove(id);
+        if (old == null)
+            return;
+        for (String t : old.words) {
+            Word w = words.get(t);
+            if (w == null || !w.ids.remove(id) || w.ids.size > 0)
+                continue;
+            // Unused: out of the vocabulary now, out of the tree at the next rebuild
+            words.remove(t);
+            if (w.inTree())
+                deadNodes++;
+        }
+    }
+
+    // Levenshtein distance, or any value > max as soon as it is known to exceed max
+    static int distance(String a, String b, int max) {
+        int n = a.length(), m = b.length();
+        if (Math.abs(n - m) > max)
+            return max + 1;
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++)
+            prev[j] = j;
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max)
+                return max + 1;
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m];
+    }
+
+    // Smallest distance between q and any prefix of w
+    static int prefixDistance(String q, String w, int max) {
+        int n = q.length(), m = w.length();
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++)
+            prev[j] = j;
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            char cq = q.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = cq == w.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max)
+                return max + 1;
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        int best = prev[0];
+        for (int j = 1; j <= m; j++)
+            best = Math.min(best, prev[j]);
+        return best;
+    }
+
+    // "Crème brûlée" -> [creme, brule]; "Chorba Shorba" -> [chorba, chorba]
+    static String[] tokens(String s) {
+        if (s == null)
+            return new String[0];
+        String folded = fold(s);
+        if (folded.isEmpty())
+            return new String[0];
+        return folded.split(" ");
+    }
+
+    static String fold(String s) {
+        String t = s;
+        for (int i = 0; i < t.length(); i++) {
+            if (t.charAt(i) >= 0x80) {
+                t = MARKS.matcher(Normalizer.normalize(t, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        StringBuilder sb = new StringBuilder(t.length());
+        for (int i = 0; i < t.length(); i++) {
+            char c = Character.toLowerCase(t.charAt(i));
+            char next = i + 1 < t.length() ? Character.toLowerCase(t.charAt(i + 1)) : 0;
+            // Spelling variants of the same sound in French/English transliterations
+            if ((c == 's' && next == 'h') || (c == 'd' && next == 'j') || (c == 'p' && next == 'h')
+                    || (c == 'o' && next == 'u')) {
+                i++;
+                append(sb, c == 's' ? 'c' : c == 'd' ? 'j' : c == 'p' ? 'f' : 'u');
+                if (c == 's')
+                    append(sb, 'h');
+            } else if (c == 'œ') {
+                append(sb, 'o');
+                append(sb, 'e');
+            } else if (c == 'æ') {
+                append(sb, 'a');
+                append(sb, 'e');
+            } else if (c == 'ß') {
+                append(sb, 's');
+            } else if (c == 'y') {
+                append(sb, 'i');
+            } else if (Character.isLetterOrDigit(c)) {
+                append(sb, c);
+            } else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+                sb.append(' ');
+            }
+        }
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ')
+            end--;
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    // Doubled letters are a frequent typo ("chocolat" / "choccolat"), so they collapse
+    private static void append(StringBuilder sb, char c) {
+        int n = sb.length();
+        if (n > 0 && sb.charAt(n - 1) == c && !Character.isDigit(c))
+            return;
+        sb.append(c);
+    }
+
+    private static final class Match {
+        final Posting ids;
+        final int distance;
+
+        Match(Posting ids, int distance) {
+            this.ids = ids;
+            this.distance = distance;
+        }
+    }
+}
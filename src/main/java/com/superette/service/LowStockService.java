@@ -18,7 +18,7 @@ public class LowStockService {
                 "FROM product WHERE active = 1 AND stock_qty <= reorder_threshold ORDER BY stock_qty ASC, name";
         List<Product> out = new ArrayList<>();
         try (Connection conn = Database.getConnection();
-                PreparedStatement ps = conn.prepareStatement(sql);
+                PreparedStatement ps = Database.prepare(conn, sql);
                 ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
                 Product p = map(rs);
@@ -0,0 +1,45 @@
+package com.superette.service;
+
+import java.util.Arrays;
+
+// Sorted, growable list of product ids, shared by the search indexes.
+// Not thread-safe: the owning index guards it with its lock.
+final class Posting {
+    int[] ids = new int[4];
+    int size;
+
+    void add(int id) {
+        if (size == 0 || ids[size - 1] < id) {
+            append(id);
+            return;
+        }
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if (pos >= 0)
+            return;
+        pos = -pos - 1;
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size * 2);
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        ids[pos] = id;
+        size++;
+    }
+
+    boolean remove(int id) {
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if (pos < 0)
+            return false;
+        System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+
+    boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    private void append(int id) {
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size * 2);
+        ids[size++] = id;
+    }
+}
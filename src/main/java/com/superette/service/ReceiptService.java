@@ -12,7 +12,9 @@ import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 
+import com.superette.model.Money;
 import com.superette.model.Settings;
+import com.superette.model.VatCalculator;
 import com.superette.repo.SaleRepo;
 
 public class ReceiptService {
@@ -76,7 +78,10 @@ public class ReceiptService {
                 cs.beginText();
                 cs.setFont(PDType1Font.HELVETICA_BOLD, 12);
                 cs.newLineAtOffset(margin, y);
-                cs.showText(String.format("Sale #%d — %s — %s", sale.id, sale.datetime, sale.paymentMethod));
+                String register = sale.registerSeq == null ? ""
+                        : String.format(" — Register %s #%d", sale.registerId, sale.registerSeq);
+                cs.showText(String.format("Sale #%d%s — %s — %s", sale.id, register, sale.datetime,
+                        sale.paymentMethod));
                 cs.endText();
 
                 // Table headers
@@ -115,7 +120,8 @@ public class ReceiptService {
                     String barcode = d.barcode == null ? "" : (" [" + d.barcode + "]");
                     String itemText = itemName + barcode;
 
-                    double lineTotal = d.qty * d.unitPriceGross;
+                    long unit = Money.of(d.unitPriceGross);
+                    long lineTotal = VatCalculator.lineGross(unit, d.qty);
 
                     cs.beginText();
                     cs.newLineAtOffset(margin, y);
@@ -129,12 +135,12 @@ public class ReceiptService {
 
                     cs.beginText();
                     cs.newLineAtOffset(page.getMediaBox().getWidth() - margin - 140, y);
-                    cs.showText(fmtMoney(currency, d.unitPriceGross));
+                    cs.showText(Money.format(currency, unit));
                     cs.endText();
 
                     cs.beginText();
                     cs.newLineAtOffset(page.getMediaBox().getWidth() - margin - 70, y);
-                    cs.showText(fmtMoney(currency, lineTotal));
+                    cs.showText(Money.format(currency, lineTotal));
                     cs.endText();
 
                     y -= 12;
@@ -145,14 +151,14 @@ public class ReceiptService {
                 cs.beginText();
                 cs.setFont(PDType1Font.HELVETICA_BOLD, 12);
                 cs.newLineAtOffset(margin, y);
-                cs.showText(String.format("Total VAT: %s", fmtMoney(currency, sale.totalVat)));
+                cs.showText("Total VAT: " + Money.format(currency, millimes(sale.totalVatMillimes, sale.totalVat)));
                 cs.endText();
 
                 y -= 16;
                 cs.beginText();
                 cs.setFont(PDType1Font.HELVETICA_BOLD, 13);
                 cs.newLineAtOffset(margin, y);
-                cs.showText(String.format("Total: %s", fmtMoney(currency, sale.totalGross)));
+                cs.showText("Total: " + Money.format(currency, millimes(sale.totalGrossMillimes, sale.totalGross)));
                 cs.endText();
 
                 // Footer
@@ -172,8 +178,9 @@ public class ReceiptService {
         return outFile;
     }
 
-    private String fmtMoney(String cur, double v) {
-        return cur + " " + String.format(java.util.Locale.US, "%.3f", v);
+    // Summaries read from the database carry exact millimes; hand-built ones may only set the double
+    private static long millimes(long exact, double amount) {
+        return exact != 0 ? exact : Money.of(amount);
     }
 
     private String fmtQty(double v) {
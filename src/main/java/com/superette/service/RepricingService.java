@@ -0,0 +1,203 @@
+package com.superette.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.superette.db.Database;
+
+// Bulk price/VAT changes. The new price is computed by one SQL expression shared
+// by preview and apply, so what the preview shows is exactly what gets written,
+// and apply is a single UPDATE ... FROM over the selection (one transaction,
+// however many products match).
+public class RepricingService {
+    public static final double STEP_5_MILLIMES = 0.005;
+
+    // Products to reprice; criteria combine with AND. An empty selection matches
+    // nothing unless wholeCatalog is set.
+    public static class Selection {
+        public String category;          // category name
+        public List<String> barcodes;    // exact barcodes
+        public String nameFilter;        // case-insensitive substring of the name
+        public boolean wholeCatalog;
+
+        boolean isEmpty() {
+            return (category == null || category.isBlank()) && (barcodes == null || barcodes.isEmpty())
+                    && (nameFilter == null || nameFilter.isBlank());
+        }
+    }
+
+    // Applied in order: VAT pass-through, percentage, delta, rounding
+    public static class Rule {
+        public double percent;           // +10 raises prices by 10%
+        public double delta;             // added after the percentage (TND)
+        public Double roundTo;           // e.g. STEP_5_MILLIMES; null keeps millimes
+        public Double newVatRate;        // null keeps each product's rate
+        public boolean keepNetPrice;     // with newVatRate: move the gross price with the VAT
+
+        void validate() {
+            if (percent <= -100)
+                throw new IllegalArgumentException("Percentage must be greater than -100");
+            if (roundTo != null && roundTo <= 0)
+                throw new IllegalArgumentException("Rounding step must be > 0");
+            if (newVatRate != null && newVatRate < 0)
+                throw new IllegalArgumentException("VAT rate must be >= 0");
+            if (percent == 0 && delta == 0 && newVatRate == null && roundTo == null)
+                throw new IllegalArgumentException("The rule changes nothing");
+        }
+    }
+
+    public static class PreviewLine {
+        public final int productId;
+        public final String name;
+        public final String barcode;
+        public final double oldPrice;
+        public final double newPrice;
+        public final double oldVat;
+        public final double newVat;
+
+        public PreviewLine(int productId, String name, String barcode, double oldPrice, double newPrice,
+                double oldVat, double newVat) {
+            this.productId = productId;
+            this.name = name;
+            this.barcode = barcode;
+            this.oldPrice = oldPrice;
+            this.newPrice = newPrice;
+            this.oldVat = oldVat;
+            this.newVat = newVat;
+        }
+    }
+
+    public static class Preview {
+        public final int changed;                // products whose price or VAT would change
+        public final List<PreviewLine> lines;    // first lines by name
+
+        public Preview(int changed, List<PreviewLine> lines) {
+            this.changed = changed;
+            this.lines = lines;
+        }
+    }
+
+    public Preview preview(Selection sel, Rule rule, int limit) {
+        rule.validate();
+        String base = changesCte(sel);
+        String countSql = base + "SELECT COUNT(*) FROM c";
+        String linesSql = base + "SELECT c.id, p.name, p.barcode, p.price_gross, c.new_price, p.vat_rate, c.new_vat " +
+                "FROM c JOIN product p ON p.id = c.id ORDER BY p.name, p.id LIMIT ?";
+        List<PreviewLine> lines = new ArrayList<>();
+        try (Connection conn = Database.getConnection()) {
+            int changed;
+            try (PreparedStatement ps = Database.prepare(conn, countSql)) {
+                bind(ps, sel, rule);
+                try (ResultSet rs = ps.executeQuery()) {
+                    changed = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+            try (PreparedStatement ps = Database.prepare(conn, linesSql)) {
+                int i = bind(ps, sel, rule);
+                ps.setInt(i, Math.max(1, limit));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        lines.add(new PreviewLine(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDouble(4),
+                                rs.getDouble(5), rs.getDouble(6), rs.getDouble(7)));
+                    }
+                }
+            }
+            return new Preview(changed, lines);
+        } catch (SQLException e) {
+            throw new RuntimeException("Repricing preview failed", e);
+        }
+    }
+
+    // Returns the number of products changed
+    public int apply(Selection sel, Rule rule) {
+        rule.validate();
+        String sql = changesCte(sel) +
+                "UPDATE product SET price_gross = c.new_price, vat_rate = c.new_vat FROM c WHERE product.id = c.id";
+        int changed;
+        try {
+            changed = Database.write(conn -> {
+                try (PreparedStatement ps = Database.prepare(conn, sql)) {
+                    bind(ps, sel, rule);
+                    return ps.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Repricing failed", e);
+        }
+        if (changed > 0)
+            CatalogCache.get().invalidateAll();
+        return changed;
+    }
+
+    // CTE "c(id, new_price, new_vat)" of selected products whose price or VAT changes.
+    // Parameters: percent, delta, step, vat, keep_net, then the selection's own.
+    private static String changesCte(Selection sel) {
+        if (sel.isEmpty() && !sel.wholeCatalog)
+            throw new IllegalArgumentException("Select products by category, barcode or name (or the whole catalog)");
+        String grossBase = "CASE WHEN r.keep_net = 1 AND r.vat IS NOT NULL " +
+                "THEN p.price_gross * (100.0 + r.vat) / (100.0 + p.vat_rate) ELSE p.price_gross END";
+        String raw = "MAX(0.0, (" + grossBase + ") * (1 + r.pct / 100.0) + r.delta)";
+        String rounded = "ROUND(CASE WHEN r.step IS NULL THEN " + raw +
+                " ELSE ROUND(" + raw + " / r.step) * r.step END, 3)";
+        List<String> conds = new ArrayList<>();
+        if (sel.category != null && !sel.category.isBlank())
+            conds.add("p.category_id IN (SELECT id FROM category WHERE name = ?)");
+        if (sel.barcodes != null && !sel.barcodes.isEmpty())
+            conds.add("p.barcode IN (SELECT value FROM json_each(?))");
+        if (sel.nameFilter != null && !sel.nameFilter.isBlank())
+            conds.add("p.name LIKE ?");
+        String where = conds.isEmpty() ? "" : " WHERE " + String.join(" AND ", conds);
+        return "WITH r(pct, delta, step, vat, keep_net) AS (VALUES (?, ?, ?, ?, ?)), " +
+                "s AS (SELECT p.id, p.price_gross, p.vat_rate, " + rounded + " AS new_price, " +
+                "COALESCE(r.vat, p.vat_rate) AS new_vat FROM product p, r" + where + "), " +
+                "c AS (SELECT id, new_price, new_vat FROM s WHERE new_price <> price_gross OR new_vat <> vat_rate) ";
+    }
+
+    // Returns the next free parameter index
+    private static int bind(PreparedStatement ps, Selection sel, Rule rule) throws SQLException {
+        int i = 1;
+        ps.setDouble(i++, rule.percent);
+        ps.setDouble(i++, rule.delta);
+        if (rule.roundTo == null)
+            ps.setNull(i++, Types.REAL);
+        else
+            ps.setDouble(i++, rule.roundTo);
+        if (rule.newVatRate == null)
+            ps.setNull(i++, Types.REAL);
+        else
+            ps.setDouble(i++, rule.newVatRate);
+        ps.setInt(i++, rule.keepNetPrice ? 1 : 0);
+        if (sel.category != null && !sel.category.isBlank())
+            ps.setString(i++, sel.category.trim());
+        if (sel.barcodes != null && !sel.barcodes.isEmpty())
+            ps.setString(i++, jsonArray(sel.barcodes));
+        if (sel.nameFilter != null && !sel.nameFilter.isBlank())
+            ps.setString(i++, "%" + sel.nameFilter.trim() + "%");
+        return i;
+    }
+
+    static String jsonArray(List<String> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (String v : values) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append('"');
+            for (int k = 0; k < v.length(); k++) {
+                char c = v.charAt(k);
+                if (c == '"' || c == '\\')
+                    sb.append('\\').append(c);
+                else if (c < 0x20)
+                    sb.append(String.format("\\u%04x", (int) c));
+                else
+                    sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.append(']').toString();
+    }
+}
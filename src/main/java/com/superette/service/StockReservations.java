@@ -0,0 +1,171 @@
+package com.superette.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.LongSupplier;
+
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+// Stock held by carts that are still being built. Each product has one atomic
+// reserved counter, so checking availability at scan time is a couple of
+// lock-free reads, and two carts of this register can never both claim the
+// last unit. A cart that is not touched for a while (cashier walked away) gives
+// its stock back once the sweeper is started.
+// Reservations live in this process only and know nothing of other registers'
+// carts: with a shared database the guarded sale UPDATE is the only guard.
+public final class StockReservations {
+    static final long UNITS = 1_000_000; // quantities held in millionths (stock is rounded to 6 places)
+    private static final long SWEEP_MILLIS = 30_000;
+
+    private static final StockReservations INSTANCE = new StockReservations(StockReservations::currentStock,
+            TimeUnit.MINUTES.toMillis(Long.getLong("superette.reservationTtlMinutes", 15)),
+            System::currentTimeMillis);
+
+    private final IntToDoubleFunction stockOf;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<Integer, AtomicLong> reserved = new ConcurrentHashMap<>();
+    private final Set<Cart> carts = ConcurrentHashMap.newKeySet(); // carts holding anything
+    private ScheduledExecutorService sweeper;
+
+    StockReservations(IntToDoubleFunction stockOf, long ttlMillis, LongSupplier clock) {
+        this.stockOf = stockOf;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    public static StockReservations get() {
+        return INSTANCE;
+    }
+
+    // Releases idle carts every SWEEP_MILLIS from now on; the app calls it once
+    // at startup (tests drive sweep() themselves)
+    public synchronized void startSweeper() {
+        if (sweeper != null)
+            return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reservations");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    public Cart openCart() {
+        return new Cart();
+    }
+
+    // Stock not yet held by any cart (never negative)
+    public double available(int productId) {
+        AtomicLong r = reserved.get(productId);
+        long free = units(stockOf.applyAsDouble(productId)) - (r == null ? 0 : r.get());
+        return Math.max(0, free) / (double) UNITS;
+    }
+
+    // Releases carts idle for longer than the TTL; returns how many
+    int sweep() {
+        long cutoff = clock.getAsLong() - ttlMillis;
+        int expired = 0;
+        for (Cart c : carts) {
+            if (c.expireIfIdleSince(cutoff))
+                expired++;
+        }
+        return expired;
+    }
+
+    private boolean take(int productId, long qty) {
+        AtomicLong r = reserved.computeIfAbsent(productId, k -> new AtomicLong());
+        long stock = units(stockOf.applyAsDouble(productId));
+        while (true) {
+            long cur = r.get();
+            if (stock - cur < qty)
+                return false;
+            if (r.compareAndSet(cur, cur + qty))
+                return true;
+        }
+    }
+
+    private void give(int productId, long qty) {
+        reserved.get(productId).addAndGet(-qty);
+    }
+
+    private static long units(double qty) {
+        return Math.round(qty * UNITS);
+    }
+
+    // From the catalog cache, or SQL in the search modes that do not hold the catalog
+    private static double currentStock(int productId) {
+        Product p = new ProductRepo().findById(productId);
+        return p == null ? 0.0 : p.getStockQty();
+    }
+
+    // What one register's cart holds, per product. Methods are synchronized so
+    // the sweeper cannot release a cart halfway through a change.
+    public final class Cart {
+        private final Map<Integer, Long> held = new ConcurrentHashMap<>();
+        private volatile long touched = clock.getAsLong();
+
+        // Holds exactly qty of the product for this cart (0 lets it go).
+        // Returns false, holding what it held before, when not enough is free.
+        public synchronized boolean set(int productId, double qty) {
+            touched = clock.getAsLong();
+            long want = Math.max(0, units(qty));
+            long have = held.getOrDefault(productId, 0L);
+            if (want > have && !take(productId, want - have))
+                return false;
+            if (want < have)
+                give(productId, have - want);
+            if (want == 0)
+                held.remove(productId);
+            else
+                held.put(productId, want);
+            if (held.isEmpty())
+                carts.remove(this);
+            else
+                carts.add(this);
+            return true;
+        }
+
+        public double held(int productId) {
+            return held.getOrDefault(productId, 0L) / (double) UNITS;
+        }
+
+        // True when every quantity is fully held, so checkout need not re-read stock
+        public synchronized boolean covers(Map<Integer, Double> needed) {
+            for (Map.Entry<Integer, Double> e : needed.entrySet()) {
+                if (held.getOrDefault(e.getKey(), 0L) < units(e.getValue()))
+                    return false;
+            }
+            return true;
+        }
+
+        // After checkout (the stock is gone from the cache by then) or when the cart is cleared
+        public synchronized void releaseAll() {
+            for (Map.Entry<Integer, Long> e : held.entrySet())
+                give(e.getKey(), e.getValue());
+            held.clear();
+            carts.remove(this);
+        }
+
+        private synchronized boolean expireIfIdleSince(long cutoff) {
+            if (touched > cutoff || held.isEmpty())
+                return false;
+            releaseAll();
+            return true;
+        }
+    }
+}
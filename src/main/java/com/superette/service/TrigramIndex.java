@@ -0,0 +1,229 @@
+package com.superette.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Substring search over product names and barcodes. Every 3-character gram of
+// the lower-cased text points to a sorted posting list of product ids; a query
+// intersects the postings of its own grams and verifies the survivors, so the
+// cost follows the rarest gram rather than the catalog size. Queries shorter
+// than three characters match word prefixes through dedicated prefix grams.
+final class TrigramIndex {
+    private static final char WORD_START = '\u0001';
+
+    private static final class Doc {
+        final String name;
+        final String nameLower;
+        final String barcode;
+
+        Doc(String name, String barcode) {
+            this.name = name == null ? "" : name;
+            this.nameLower = this.name.toLowerCase(Locale.ROOT);
+            this.barcode = barcode == null ? "" : barcode;
+        }
+    }
+
+    private final Map<Long, Posting> postings = new HashMap<>();
+    private final DocTable<Doc> docs = new DocTable<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    void put(int id, String name, String barcode) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            Doc d = new Doc(name, barcode);
+            docs.put(id, d);
+            for (long g : grams(d))
+                postings.computeIfAbsent(g, k -> new Posting()).add(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docs.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ids of the best matches, best first
+    List<Integer> search(String query, int limit) {
+        String q = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty() || limit <= 0)
+            return List.of();
+        lock.readLock().lock();
+        try {
+            Posting[] lists = queryPostings(q);
+            if (lists == null)
+                return List.of();
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+            // Keep the `limit` best candidates; the head is the worst kept one
+            PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, (a, b) -> b.compareTo(a));
+            String wordStart = " " + q;
+            Posting rarest = lists[0];
+            outer: for (int i = 0; i < rarest.size; i++) {
+                int id = rarest.ids[i];
+                for (int k = 1; k < lists.length; k++) {
+                    if (!lists[k].contains(id))
+                        continue outer;
+                }
+                Doc d = docs.get(id);
+                int rank = rank(d, q, wordStart);
+                if (rank < 0)
+                    continue;
+                if (top.size() == limit && !top.peek().worseThan(rank, d.name, id))
+                    continue;
+                top.add(new Hit(id, rank, d.name));
+                if (top.size() > limit)
+                    top.poll();
+            }
+            Hit[] hits = top.toArray(new Hit[0]);
+            Arrays.sort(hits);
+            List<Integer> out = new ArrayList<>(hits.length);
+            for (Hit h : hits)
+                out.add(h.id);
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Lower is better; -1 means the candidate does not actually match
+    private static int rank(Doc d, String q, String wordStart) {
+        return rank(d.nameLower, d.barcode, q, wordStart);
+    }
+
+    // Same ranking for a product outside the index; q is trimmed and lower-cased
+    static int rank(String name, String barcode, String q) {
+        return rank(name == null ? "" : name.toLowerCase(Locale.ROOT), barcode == null ? "" : barcode, q, " " + q);
+    }
+
+    private static int rank(String nameLower, String barcode, String q, String wordStart) {
+        if (nameLower.equals(q) || barcode.equals(q))
+            return 0;
+        if (nameLower.startsWith(q) || barcode.startsWith(q))
+            return 1;
+        if (nameLower.contains(wordStart))
+            return 2;
+        if (q.length() >= 3 && (nameLower.contains(q) || barcode.contains(q)))
+            return 3;
+        return -1;
+    }
+
+    private Posting[] queryPostings(String q) {
+        Set<Long> keys = new HashSet<>();
+        if (q.length() < 3) {
+            keys.add(gram(WORD_START, q.charAt(0), q.length() > 1 ? q.charAt(1) : WORD_START));
+        } else {
+            for (int i = 0; i + 3 <= q.length(); i++)
+                keys.add(gram(q.charAt(i), q.charAt(i + 1), q.charAt(i + 2)));
+        }
+        Posting[] lists = new Posting[keys.size()];
+        int n = 0;
+        for (Long k : keys) {
+            Posting p = postings.get(k);
+            if (p == null || p.size == 0)
+                return null;
+            lists[n++] = p;
+        }
+        return lists;
+    }
+
+    private void removeLocked(int id) {
+        Doc old = docs.remove(id);
+        if (old == null)
+            return;
+        for (long g : grams(old)) {
+            Posting p = postings.get(g);
+            if (p != null && p.remove(id) && p.size == 0)
+                postings.remove(g);
+        }
+    }
+
+    private static Set<Long> grams(Doc d) {
+        Set<Long> out = new HashSet<>();
+        addGrams(d.nameLower, out);
+        addGrams(d.barcode, out);
+        return out;
+    }
+
+    private static void addGrams(String s, Set<Long> out) {
+        for (int i = 0; i + 3 <= s.length(); i++)
+            out.add(gram(s.charAt(i), s.charAt(i + 1), s.charAt(i + 2)));
+        // Prefix grams for 1- and 2-character queries at each word start
+        for (int i = 0; i < s.length(); i++) {
+            if (i > 0 && s.charAt(i - 1) != ' ')
+                continue;
+            char c = s.charAt(i);
+            if (c == ' ')
+                continue;
+            out.add(gram(WORD_START, c, WORD_START));
+            if (i + 1 < s.length() && s.charAt(i + 1) != ' ')
+                out.add(gram(WORD_START, c, s.charAt(i + 1)));
+        }
+    }
+
+    private static long gram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private static final class Hit implements Comparable<Hit> {
+        final int id;
+        final int rank;
+        final String name;
+
+        Hit(int id, int rank, String name) {
+            this.id = id;
+            this.rank = rank;
+            this.name = name;
+        }
+
+        @Override
+        public int compareTo(Hit o) {
+            return -o.compareTo(rank, name, id);
+        }
+
+        boolean worseThan(int otherRank, String otherName, int otherId) {
+            return compareTo(otherRank, otherName, otherId) > 0;
+        }
+
+        private int compareTo(int otherRank, String otherName, int otherId) {
+            if (rank != otherRank)
+                return Integer.compare(rank, otherRank);
+            int c = name.compareTo(otherName);
+            return c != 0 ? c : Integer.compare(id, otherId);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.superette.ui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.superette.db.CartJournal;
+import com.superette.model.Money;
+import com.superette.model.Product;
+import com.superette.model.VatCalculator;
+
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+// The cash register's cart. Lines are indexed by product id and the totals
+// are kept up to date by applying each line's change (old line out, new line
+// in), so a scan costs the same with 5 lines or 500. Every line owns its
+// observable values, so table cells bind to them instead of allocating.
+// Changes can be mirrored to a CartJournal so the cart survives a crash.
+public class CartModel {
+    private final ObservableList<Line> lines = FXCollections.observableArrayList();
+    private final ObservableList<Line> readOnlyLines = FXCollections.unmodifiableObservableList(lines);
+    private final Map<Integer, Line> byProduct = new HashMap<>();
+    private final ReadOnlyLongWrapper gross = new ReadOnlyLongWrapper(); // millimes
+    private final ReadOnlyLongWrapper vat = new ReadOnlyLongWrapper();
+    private CartJournal journal; // optional
+
+    public void setJournal(CartJournal journal) {
+        this.journal = journal;
+    }
+
+    public ObservableList<Line> lines() {
+        return readOnlyLines;
+    }
+
+    public Line line(int productId) {
+        return byProduct.get(productId);
+    }
+
+    public double qty(int productId) {
+        Line l = byProduct.get(productId);
+        return l == null ? 0.0 : l.getQty();
+    }
+
+    // Adds qty of p, on the product's existing line if it has one
+    public Line add(Product p, double qty) {
+        Line l = byProduct.get(p.getId());
+        if (l != null) {
+            setQty(l, l.getQty() + qty);
+            return l;
+        }
+        l = new Line(p);
+        byProduct.put(p.getId(), l);
+        l.update(qty);
+        gross.set(gross.get() + l.lineGross.get());
+        vat.set(vat.get() + l.lineVat);
+        lines.add(l);
+        record(l.product.getId(), qty);
+        return l;
+    }
+
+    public void setQty(Line l, double qty) {
+        long oldGross = l.lineGross.get();
+        long oldVat = l.lineVat;
+        l.update(qty);
+        gross.set(gross.get() - oldGross + l.lineGross.get());
+        vat.set(vat.get() - oldVat + l.lineVat);
+        record(l.product.getId(), qty);
+    }
+
+    public void remove(int productId) {
+        Line l = byProduct.remove(productId);
+        if (l == null)
+            return;
+        gross.set(gross.get() - l.lineGross.get());
+        vat.set(vat.get() - l.lineVat);
+        lines.remove(l);
+        record(productId, 0);
+    }
+
+    public void clear() {
+        byProduct.clear();
+        lines.clear();
+        gross.set(0);
+        vat.set(0);
+        if (journal != null)
+            journal.clear();
+    }
+
+    private void record(int productId, double qty) {
+        if (journal != null)
+            journal.set(productId, qty);
+    }
+
+    // Copy of the lines, e.g. to hand to checkout before clearing
+    public List<Line> snapshot() {
+        return new ArrayList<>(lines);
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public ReadOnlyLongProperty grossProperty() {
+        return gross.getReadOnlyProperty();
+    }
+
+    public ReadOnlyLongProperty vatProperty() {
+        return vat.getReadOnlyProperty();
+    }
+
+    public long gross() {
+        return gross.get();
+    }
+
+    public long vat() {
+        return vat.get();
+    }
+
+    // One product in the cart. Quantity changes go through the cart so its
+    // totals follow.
+    public static final class Line {
+        private final Product product;
+        private final ReadOnlyStringWrapper name;
+        private final ReadOnlyLongWrapper unitGross; // millimes, converted once
+        private final ReadOnlyObjectWrapper<Double> qty = new ReadOnlyObjectWrapper<>(0.0);
+        private final ReadOnlyLongWrapper lineGross = new ReadOnlyLongWrapper();
+        private long lineVat;
+
+        private Line(Product product) {
+            this.product = product;
+            this.name = new ReadOnlyStringWrapper(product.getName());
+            this.unitGross = new ReadOnlyLongWrapper(Money.of(product.getPriceGross()));
+        }
+
+        private void update(double q) {
+            qty.set(q);
+            lineGross.set(VatCalculator.lineGross(unitGross.get(), q));
+            lineVat = VatCalculator.vatIncluded(lineGross.get(), product.getVatRate());
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        public ReadOnlyStringProperty nameProperty() {
+            return name.getReadOnlyProperty();
+        }
+
+        public long getUnitGross() {
+            return unitGross.get();
+        }
+
+        public ReadOnlyLongProperty unitGrossProperty() {
+            return unitGross.getReadOnlyProperty();
+        }
+
+        public double getQty() {
+            return qty.get();
+        }
+
+        public ReadOnlyObjectProperty<Double> qtyProperty() {
+            return qty.getReadOnlyProperty();
+        }
+
+        public long getLineGross() {
+            return lineGross.get();
+        }
+
+        public ReadOnlyLongProperty lineGrossProperty() {
+            return lineGross.getReadOnlyProperty();
+        }
+
+        public long getLineVat() {
+            return lineVat;
+        }
+    }
+}
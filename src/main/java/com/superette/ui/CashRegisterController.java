@@ -1,20 +1,27 @@
 package com.superette.ui;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
+import com.superette.db.Database;
+import com.superette.model.Money;
 import com.superette.model.Product;
+import com.superette.repo.ParkedCartRepo;
 import com.superette.repo.ProductRepo;
 import com.superette.repo.SaleRepo;
+import com.superette.service.AutocompleteService;
+import com.superette.service.StockReservations;
 
 import javafx.animation.PauseTransition;
-import javafx.beans.property.DoubleProperty;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
 import javafx.beans.property.ReadOnlyObjectWrapper;
-import javafx.beans.property.SimpleDoubleProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Side;
 import javafx.scene.Parent;
@@ -28,6 +35,7 @@ import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.cell.TextFieldTableCell;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
@@ -40,6 +48,7 @@ public class CashRegisterController {
     private final BorderPane root = new BorderPane();
     private final ProductRepo productRepo = new ProductRepo();
     private final SaleRepo saleRepo = new SaleRepo();
+    private final ParkedCartRepo parkedRepo = new ParkedCartRepo();
     private Runnable onSaleCompleted;
 
     // Inputs
@@ -48,16 +57,26 @@ public class CashRegisterController {
 
     // Autocomplete
     private final ContextMenu suggestions = new ContextMenu();
-    private final PauseTransition suggestDebounce = new PauseTransition(Duration.millis(200));
+    private final AutocompleteService autocomplete = new AutocompleteService(Platform::runLater);
+    private final PauseTransition suggestDebounce = new PauseTransition(Duration.millis(80));
 
     // Cart
-    private final TableView<CartLine> table = new TableView<>();
-    private final ObservableList<CartLine> cart = FXCollections.observableArrayList();
+    private final TableView<CartModel.Line> table = new TableView<>();
+    private final CartModel cart = new CartModel();
+    private StockReservations.Cart reservation = StockReservations.get().openCart(); // replaced at each checkout
+    private String saleKey = UUID.randomUUID().toString(); // idempotency key of the cart being built
 
     // Totals
     private final Label totalGrossLbl = new Label("TND 0.000");
     private final Label totalVatLbl = new Label("TND 0.000");
 
+    // Sales handed to the writer and not committed yet
+    private final Label saleStatusLbl = new Label();
+    private int salesInFlight;
+
+    // Parked carts (shared by all registers)
+    private final Button parkedBtn = new Button();
+
     public CashRegisterController() {
         root.setPadding(new Insets(10));
 
@@ -81,55 +100,60 @@ public class CashRegisterController {
         top.add(qtyField, 3, 0);
         top.add(addBtn, 4, 0);
 
-        // Table columns
-        TableColumn<CartLine, String> nameCol = new TableColumn<>("Name");
-        nameCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().getProduct().getName()));
+        // Table columns (cells read the line's own properties)
+        TableColumn<CartModel.Line, String> nameCol = new TableColumn<>("Name");
+        nameCol.setCellValueFactory(c -> c.getValue().nameProperty());
 
-        TableColumn<CartLine, Number> priceCol = new TableColumn<>("Unit (gross)");
-        priceCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().getProduct().getPriceGross()));
+        TableColumn<CartModel.Line, Number> priceCol = new TableColumn<>("Unit (gross)");
+        priceCol.setCellValueFactory(c -> c.getValue().unitGrossProperty());
+        priceCol.setCellFactory(col -> new MoneyCell());
 
-        TableColumn<CartLine, Double> qtyCol = new TableColumn<>("Qty");
-        qtyCol.setCellValueFactory(c -> c.getValue().qtyProperty().asObject());
+        TableColumn<CartModel.Line, Double> qtyCol = new TableColumn<>("Qty");
+        qtyCol.setCellValueFactory(c -> c.getValue().qtyProperty());
         qtyCol.setCellFactory(TextFieldTableCell.forTableColumn(new DoubleStringConverter()));
         qtyCol.setOnEditCommit(evt -> {
-            double v = evt.getNewValue();
-            if (v <= 0) {
+            CartModel.Line line = evt.getRowValue();
+            Double v = evt.getNewValue();
+            if (v == null || v <= 0) {
                 alert("Validation", "Quantity must be > 0");
-                evt.getRowValue().setQty(1.0);
-            } else {
-                evt.getRowValue().setQty(v);
+            } else if (reserve(line.getProduct(), v)) {
+                cart.setQty(line, v);
             }
-            recalcTotals();
+            table.refresh(); // show the kept value when the edit was refused
         });
 
-        TableColumn<CartLine, Number> totalCol = new TableColumn<>("Line Total");
-        totalCol.setCellValueFactory(
-                c -> new SimpleDoubleProperty(c.getValue().getQty() * c.getValue().getProduct().getPriceGross()));
+        TableColumn<CartModel.Line, Number> totalCol = new TableColumn<>("Line Total");
+        totalCol.setCellValueFactory(c -> c.getValue().lineGrossProperty());
+        totalCol.setCellFactory(col -> new MoneyCell());
 
-        TableColumn<CartLine, CartLine> removeCol = new TableColumn<>("Remove");
+        TableColumn<CartModel.Line, CartModel.Line> removeCol = new TableColumn<>("Remove");
         removeCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue()));
         removeCol.setCellFactory(col -> new TableCell<>() {
             private final Button btn = new Button("X");
 
             @Override
-            protected void updateItem(CartLine line, boolean empty) {
+            protected void updateItem(CartModel.Line line, boolean empty) {
                 super.updateItem(line, empty);
                 if (empty || line == null) {
                     setGraphic(null);
                 } else {
                     btn.setOnAction(e -> {
-                        cart.remove(line);
-                        recalcTotals();
+                        reservation.set(line.getProduct().getId(), 0);
+                        cart.remove(line.getProduct().getId());
                     });
                     setGraphic(btn);
                 }
             }
         });
 
-        table.setItems(cart);
+        cart.setJournal(Database.cartJournal());
+        table.setItems(cart.lines());
         table.setEditable(true);
         table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         table.getColumns().addAll(List.of(nameCol, priceCol, qtyCol, totalCol, removeCol));
+        totalGrossLbl.textProperty().bind(Bindings.createStringBinding(() -> fmtTND(cart.gross()),
+                cart.grossProperty()));
+        totalVatLbl.textProperty().bind(Bindings.createStringBinding(() -> fmtTND(cart.vat()), cart.vatProperty()));
 
         // Bottom: totals + actions
         HBox totals = new HBox(20, new Label("Total Gross:"), totalGrossLbl, new Label("Total VAT:"), totalVatLbl);
@@ -138,32 +162,42 @@ public class CashRegisterController {
         Button payCardBtn = new Button("Pay CARD");
         payCardBtn.setOnAction(e -> checkout("CARD"));
 
-        HBox actions = new HBox(10, payCashBtn, payCardBtn);
+        Button parkBtn = new Button("Park cart");
+        parkBtn.setOnAction(e -> onPark());
+        parkedBtn.setOnAction(e -> onResume());
+        updateParkedCount();
+
+        HBox actions = new HBox(10, payCashBtn, payCardBtn, parkBtn, parkedBtn, saleStatusLbl);
         VBox bottom = new VBox(10, totals, actions);
 
         // Autocomplete wiring
         productField.textProperty().addListener((obs, ov, nv) -> {
-            suggestions.hide();
             suggestDebounce.stop();
-            if (nv == null || nv.trim().length() < 1)
+            if (nv == null || nv.trim().length() < 1) {
+                autocomplete.cancel();
+                suggestions.hide();
                 return;
+            }
             suggestDebounce.setOnFinished(e -> showSuggestions(nv.trim()));
             suggestDebounce.playFromStart();
         });
         productField.focusedProperty().addListener((o, oldV, newV) -> {
-            if (!newV)
+            if (!newV) {
+                autocomplete.cancel();
                 suggestions.hide();
+            }
         });
 
         root.setTop(new VBox(10, title, top));
         root.setCenter(table);
         root.setBottom(bottom);
-
-        recalcTotals();
     }
 
     private void showSuggestions(String q) {
-        List<Product> matches = productRepo.searchByQuery(q, 10);
+        autocomplete.suggest(q, 10, this::showMatches);
+    }
+
+    private void showMatches(List<Product> matches) {
         if (matches.isEmpty()) {
             suggestions.hide();
             return;
@@ -212,25 +246,25 @@ public class CashRegisterController {
             return;
         }
 
-        Optional<CartLine> existing = cart.stream().filter(cl -> cl.getProduct().getId().equals(p.getId())).findFirst();
-        if (existing.isPresent()) {
-            existing.get().setQty(existing.get().getQty() + qty);
-        } else {
-            cart.add(new CartLine(p, qty));
-        }
+        if (!reserve(p, cart.qty(p.getId()) + qty))
+            return;
+        cart.add(p, qty);
         productField.clear();
         qtyField.setText("1");
-        recalcTotals();
     }
 
+    // The sale commits in the background: the cart is cleared at once so the
+    // next customer can be scanned, and comes back if the sale fails. A fully
+    // reserved cart is confirmed from the sale journal without waiting at all.
     private void checkout(String method) {
         if (cart.isEmpty()) {
             alert("Cart empty", "Add at least one item.");
             return;
         }
         // Build sale items
-        List<SaleRepo.SaleItem> items = new ArrayList<>();
-        for (CartLine cl : cart) {
+        List<CartModel.Line> lines = cart.snapshot();
+        List<SaleRepo.SaleItem> items = new ArrayList<>(lines.size());
+        for (CartModel.Line cl : lines) {
             Product p = cl.getProduct();
             items.add(new SaleRepo.SaleItem(
                     p.getId(),
@@ -238,35 +272,204 @@ public class CashRegisterController {
                     p.getPriceGross(),
                     p.getVatRate()));
         }
+        StockReservations.Cart held = reservation;
+        String key = saleKey;
+        SaleRepo.JournaledSale journaled;
         try {
-            int saleId = saleRepo.createSale(items, method);
-            alert("Sale completed", "Sale #" + saleId + " registered.");
-            cart.clear();
-            recalcTotals();
-            if (onSaleCompleted != null)
-                onSaleCompleted.run();
-        } catch (IllegalStateException ex) {
-            alert("Insufficient stock", ex.getMessage());
+            journaled = saleRepo.journalSale(items, method, held, key);
         } catch (Exception ex) {
             alert("Error", ex.getMessage());
+            return;
+        }
+        reservation = StockReservations.get().openCart();
+        saleKey = UUID.randomUUID().toString();
+        cart.clear();
+        productField.requestFocus();
+
+        if (journaled != null) {
+            showSaleStatus("Sale recorded.");
+            journaled.committed.whenComplete((saleId, error) -> Platform.runLater(() -> {
+                if (error == null) {
+                    if (onSaleCompleted != null)
+                        onSaleCompleted.run();
+                } else {
+                    held.releaseAll();
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    alert("Error", "Sale recorded but it could not be saved to the database; it was set aside in "
+                            + "sale_dead_letter for review.\n\n" + cause.getMessage());
+                }
+            }));
+            return;
         }
+        salesInFlight++;
+        showSaleStatus("");
+        saleRepo.createSaleAsync(items, method, held, key).whenComplete((saleId, error) -> Platform.runLater(() -> {
+            salesInFlight--;
+            if (error == null) {
+                showSaleStatus("Sale #" + saleId + " registered.");
+                if (onSaleCompleted != null)
+                    onSaleCompleted.run();
+            } else {
+                held.releaseAll();
+                showSaleStatus("Sale failed.");
+                saleFailed(lines, key, error instanceof CompletionException ? error.getCause() : error);
+            }
+        }));
     }
 
-    private void recalcTotals() {
-        double gross = 0.0;
-        double vat = 0.0;
-        for (CartLine cl : cart) {
-            double lineGross = cl.getQty() * cl.getProduct().getPriceGross();
-            gross += lineGross;
-            double unitNet = cl.getProduct().getPriceGross() / (1.0 + cl.getProduct().getVatRate() / 100.0);
-            vat += cl.getQty() * (cl.getProduct().getPriceGross() - unitNet);
+    // Puts the cart aside (only ids and quantities) and frees its stock for others
+    private void onPark() {
+        if (cart.isEmpty()) {
+            alert("Cart empty", "Nothing to park.");
+            return;
+        }
+        TextInputDialog ask = new TextInputDialog();
+        ask.setTitle("Park cart");
+        ask.setHeaderText("Park this cart (" + cart.size() + " items, " + fmtTND(cart.gross()) + ")");
+        ask.setContentText("Label (optional):");
+        Optional<String> label = ask.showAndWait();
+        if (label.isEmpty())
+            return;
+        List<ParkedCartRepo.ParkedLine> lines = new ArrayList<>(cart.size());
+        for (CartModel.Line cl : cart.lines())
+            lines.add(new ParkedCartRepo.ParkedLine(cl.getProduct().getId(), cl.getQty()));
+        try {
+            parkedRepo.park(label.get(), lines, cart.gross());
+        } catch (Exception ex) {
+            alert("Error", ex.getMessage());
+            return;
         }
-        totalGrossLbl.setText(fmtTND(gross));
-        totalVatLbl.setText(fmtTND(vat));
+        reservation.releaseAll();
+        saleKey = UUID.randomUUID().toString();
+        cart.clear();
+        updateParkedCount();
+        productField.requestFocus();
     }
 
-    private String fmtTND(double v) {
-        return "TND " + String.format(java.util.Locale.US, "%.3f", v);
+    // Brings a parked cart back at today's prices; products resolved in one lookup
+    private void onResume() {
+        if (!cart.isEmpty()) {
+            alert("Cart not empty", "Finish or park the current cart first.");
+            return;
+        }
+        Optional<ParkedCartRepo.ParkedCart> chosen;
+        List<ParkedCartRepo.ParkedLine> lines;
+        try {
+            chosen = new ParkedCartsDialog(parkedRepo).showAndWait();
+            lines = chosen.isPresent() ? parkedRepo.take(chosen.get().id) : null;
+        } catch (Exception ex) {
+            alert("Error", ex.getMessage());
+            return;
+        } finally {
+            updateParkedCount();
+        }
+        if (chosen.isEmpty())
+            return;
+        if (lines == null) {
+            alert("Not available", "That cart was already resumed or discarded at another register.");
+            return;
+        }
+        Map<Integer, Double> qty = new LinkedHashMap<>();
+        for (ParkedCartRepo.ParkedLine l : lines)
+            qty.put(l.productId, l.qty);
+        String skipped = addLines(qty);
+        if (!skipped.isEmpty())
+            alert("Cart resumed", "Some lines were left out:\n" + skipped);
+        productField.requestFocus();
+    }
+
+    // At startup: offers to bring back the cart that was open when the
+    // register last stopped (crash or power cut); true when it was restored
+    public boolean offerCartRestore() {
+        Map<Integer, Double> saved = Database.cartJournal().recovered();
+        if (saved.isEmpty() || !cart.isEmpty())
+            return false;
+        Alert ask = new Alert(Alert.AlertType.CONFIRMATION,
+                "A cart of " + saved.size() + " item(s) was open when the register stopped. Restore it?",
+                ButtonType.YES, ButtonType.NO);
+        ask.setHeaderText("Restore cart");
+        if (ask.showAndWait().orElse(ButtonType.NO) != ButtonType.YES) {
+            cart.clear();
+            return false;
+        }
+        String skipped = addLines(saved);
+        if (cart.isEmpty())
+            cart.clear(); // nothing could be added: forget the saved cart too
+        if (!skipped.isEmpty())
+            alert("Cart restored", "Some lines were left out:\n" + skipped);
+        return true;
+    }
+
+    // Adds saved lines at today's prices, products resolved in one lookup;
+    // returns the lines that could not be added, one per line
+    private String addLines(Map<Integer, Double> qtyById) {
+        Map<Integer, Product> products = productRepo.findByIds(qtyById.keySet());
+        StringBuilder skipped = new StringBuilder();
+        for (Map.Entry<Integer, Double> e : qtyById.entrySet()) {
+            Product p = products.get(e.getKey());
+            double qty = e.getValue();
+            if (p == null || !p.isActive()) {
+                skipped.append("- product #").append(e.getKey()).append(" is no longer sold\n");
+            } else if (!reservation.set(p.getId(), qty)) {
+                double free = StockReservations.get().available(p.getId());
+                skipped.append("- ").append(p.getName()).append(" x ").append(fmtQty(qty)).append(": only ")
+                        .append(fmtQty(free)).append(" available\n");
+            } else {
+                cart.add(p, qty);
+            }
+        }
+        return skipped.toString();
+    }
+
+    private void updateParkedCount() {
+        int n;
+        try {
+            n = parkedRepo.count();
+        } catch (Exception ex) {
+            n = 0;
+        }
+        parkedBtn.setText(n == 0 ? "Parked carts" : "Parked carts (" + n + ")");
+    }
+
+    // A restored cart keeps its key, so paying it again can never record it twice
+    private void saleFailed(List<CartModel.Line> lines, String key, Throwable error) {
+        String title = error instanceof IllegalStateException ? "Insufficient stock" : "Error";
+        if (!cart.isEmpty()) {
+            // The next customer is already being scanned: leave their cart alone
+            StringBuilder sb = new StringBuilder("The previous sale was not registered:\n");
+            for (CartModel.Line cl : lines)
+                sb.append("- ").append(cl.getProduct().getName()).append(" x ").append(fmtQty(cl.getQty()))
+                        .append('\n');
+            alert(title, sb.append('\n').append(error.getMessage()).toString());
+            return;
+        }
+        for (CartModel.Line cl : lines) {
+            reservation.set(cl.getProduct().getId(), cl.getQty()); // best effort, checkout re-checks stock
+            cart.add(cl.getProduct(), cl.getQty());
+        }
+        saleKey = key;
+        alert(title, error.getMessage() + "\n\nThe cart was restored.");
+    }
+
+    private void showSaleStatus(String last) {
+        saleStatusLbl.setText(salesInFlight > 0 ? "Processing " + salesInFlight + " sale(s)..." : last);
+    }
+
+    // Holds qty of p for this cart; tells the cashier right away when it is not there
+    private boolean reserve(Product p, double qty) {
+        if (reservation.set(p.getId(), qty))
+            return true;
+        double free = StockReservations.get().available(p.getId()) + reservation.held(p.getId());
+        alert("Insufficient stock", "Only " + fmtQty(free) + " of " + p.getName() + " available.");
+        return false;
+    }
+
+    private String fmtTND(long millimes) {
+        return Money.format("TND", millimes);
+    }
+
+    private String fmtQty(double v) {
+        return String.format(Locale.US, "%.3f", v).replaceAll("\\.?0+$", "");
     }
 
     private void alert(String title, String msg) {
@@ -283,30 +486,12 @@ public class CashRegisterController {
         this.onSaleCompleted = r;
     }
 
-    // Cart line model
-    public static class CartLine {
-        private final Product product;
-        private final DoubleProperty qty = new SimpleDoubleProperty(1.0);
-
-        public CartLine(Product product, double qty) {
-            this.product = product;
-            this.qty.set(qty);
-        }
-
-        public Product getProduct() {
-            return product;
-        }
-
-        public double getQty() {
-            return qty.get();
-        }
-
-        public void setQty(double v) {
-            qty.set(v);
-        }
-
-        public DoubleProperty qtyProperty() {
-            return qty;
+    // Amount column showing millimes as TND
+    private static final class MoneyCell extends TableCell<CartModel.Line, Number> {
+        @Override
+        protected void updateItem(Number millimes, boolean empty) {
+            super.updateItem(millimes, empty);
+            setText(empty || millimes == null ? null : Money.format(millimes.longValue()));
         }
     }
 }
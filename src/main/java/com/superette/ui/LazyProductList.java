@@ -0,0 +1,149 @@
+package com.superette.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+import javafx.collections.ObservableListBase;
+
+// Read-only list of all products in (name, id) order that loads fixed-size pages
+// on demand through keyset queries. Only the most recently used pages are kept,
+// so a TableView over it holds roughly the visible window in memory.
+final class LazyProductList extends ObservableListBase<Product> {
+    static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 8;
+
+    private final ProductRepo repo;
+    private int size;
+    private final Map<Integer, List<Product>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Product>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    // Last row of page k-1, i.e. the keyset cursor that starts page k
+    private final Map<Integer, Product> cursors = new HashMap<>();
+
+    LazyProductList(ProductRepo repo) {
+        this.repo = repo;
+    }
+
+    @Override
+    public Product get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+        List<Product> rows = page(index / PAGE_SIZE);
+        int offset = index % PAGE_SIZE;
+        return offset < rows.size() ? rows.get(offset) : null; // rows vanished since the count
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Drops every cached page and recounts; visible rows are re-fetched lazily
+    void reload() {
+        int oldSize = size;
+        pages.clear();
+        cursors.clear();
+        size = repo.countAll();
+        beginChange();
+        if (oldSize > 0)
+            nextRemove(0, Collections.nCopies(oldSize, (Product) null));
+        if (size > 0)
+            nextAdd(0, size);
+        endChange();
+    }
+
+    // Patches cached rows in place; changed rows that are not cached are left to
+    // load when scrolled to. Returns false when a reload is needed instead: the
+    // row count changed, a cached row was renamed (it may move), or an uncached
+    // row moved into or across a cached page (its first or last row shifted).
+    boolean patch(List<Product> changed) {
+        if (repo.countAll() != size)
+            return false;
+        Map<Integer, int[]> located = new HashMap<>();
+        for (Map.Entry<Integer, List<Product>> e : pages.entrySet()) {
+            List<Product> rows = e.getValue();
+            for (int i = 0; i < rows.size(); i++)
+                located.put(rows.get(i).getId(), new int[] { e.getKey(), i });
+        }
+        boolean uncached = false;
+        for (Product p : changed) {
+            int[] at = located.get(p.getId());
+            if (at == null)
+                uncached = true;
+            else if (!Objects.equals(pages.get(at[0]).get(at[1]).getName(), p.getName()))
+                return false;
+        }
+        if (uncached && !pagesInPlace())
+            return false;
+        beginChange();
+        for (Product p : changed) {
+            int[] at = located.get(p.getId());
+            if (at == null)
+                continue;
+            List<Product> rows = pages.get(at[0]);
+            Product old = rows.set(at[1], p);
+            nextSet(at[0] * PAGE_SIZE + at[1], old);
+        }
+        endChange();
+        return true;
+    }
+
+    // True when every cached page still starts and ends at the same positions
+    private boolean pagesInPlace() {
+        for (Map.Entry<Integer, List<Product>> e : pages.entrySet()) {
+            List<Product> rows = e.getValue();
+            if (rows.isEmpty())
+                continue;
+            int first = e.getKey() * PAGE_SIZE;
+            if (repo.positionOf(rows.get(0)) != first
+                    || repo.positionOf(rows.get(rows.size() - 1)) != first + rows.size() - 1)
+                return false;
+        }
+        return true;
+    }
+
+    int indexOf(Product p) {
+        for (Map.Entry<Integer, List<Product>> e : pages.entrySet()) {
+            List<Product> rows = e.getValue();
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i).getId().equals(p.getId()))
+                    return e.getKey() * PAGE_SIZE + i;
+            }
+        }
+        return repo.positionOf(p);
+    }
+
+    private List<Product> page(int k) {
+        List<Product> rows = pages.get(k);
+        if (rows != null)
+            return rows;
+        Product cursor = k == 0 ? null : cursorFor(k);
+        rows = new ArrayList<>((k > 0 && cursor == null) ? List.of() : repo.findPage(cursor, PAGE_SIZE));
+        pages.put(k, rows);
+        if (!rows.isEmpty())
+            cursors.put(k + 1, rows.get(rows.size() - 1));
+        return rows;
+    }
+
+    private Product cursorFor(int k) {
+        Product c = cursors.get(k);
+        if (c != null)
+            return c;
+        // Jumped past pages never loaded (e.g. dragging the scrollbar): seed the cursor
+        c = repo.findAt(k * PAGE_SIZE - 1);
+        if (c != null)
+            cursors.put(k, c);
+        return c;
+    }
+}
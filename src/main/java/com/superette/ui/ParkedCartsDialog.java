@@ -0,0 +1,99 @@
+package com.superette.ui;
+
+import java.util.List;
+
+import com.superette.model.Money;
+import com.superette.repo.ParkedCartRepo;
+
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.VBox;
+
+// Parked carts of every register. Returns the one to resume (double-click or
+// Resume), or null when closed.
+public class ParkedCartsDialog extends Dialog<ParkedCartRepo.ParkedCart> {
+    private final ParkedCartRepo repo;
+    private final TableView<ParkedCartRepo.ParkedCart> table = new TableView<>();
+
+    public ParkedCartsDialog(ParkedCartRepo repo) {
+        this.repo = repo;
+        setTitle("Parked Carts");
+        setHeaderText("Resume a parked cart");
+        setResizable(true);
+
+        ButtonType resumeType = new ButtonType("Resume", ButtonBar.ButtonData.OK_DONE);
+        getDialogPane().getButtonTypes().addAll(resumeType, ButtonType.CLOSE);
+
+        TableColumn<ParkedCartRepo.ParkedCart, String> atCol = new TableColumn<>("Parked at");
+        atCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().parkedAt));
+        TableColumn<ParkedCartRepo.ParkedCart, String> regCol = new TableColumn<>("Register");
+        regCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().registerId));
+        TableColumn<ParkedCartRepo.ParkedCart, String> labelCol = new TableColumn<>("Label");
+        labelCol.setCellValueFactory(c -> new SimpleStringProperty(
+                c.getValue().label == null ? "" : c.getValue().label));
+        TableColumn<ParkedCartRepo.ParkedCart, Number> itemsCol = new TableColumn<>("Items");
+        itemsCol.setCellValueFactory(c -> new SimpleIntegerProperty(c.getValue().itemCount));
+        TableColumn<ParkedCartRepo.ParkedCart, String> totCol = new TableColumn<>("Total");
+        totCol.setCellValueFactory(c -> new SimpleStringProperty(Money.format(c.getValue().totalGrossMillimes)));
+        table.getColumns().addAll(List.of(atCol, regCol, labelCol, itemsCol, totCol));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        table.setPrefSize(560, 300);
+        table.setRowFactory(tv -> {
+            TableRow<ParkedCartRepo.ParkedCart> row = new TableRow<>();
+            row.setOnMouseClicked(e -> {
+                if (e.getClickCount() == 2 && !row.isEmpty()) {
+                    setResult(row.getItem());
+                    close();
+                }
+            });
+            return row;
+        });
+
+        Button discardBtn = new Button("Discard");
+        discardBtn.setOnAction(e -> discard());
+
+        VBox content = new VBox(10, table, discardBtn);
+        content.setPadding(new Insets(10));
+        getDialogPane().setContent(content);
+
+        Node resumeBtn = getDialogPane().lookupButton(resumeType);
+        resumeBtn.disableProperty().bind(table.getSelectionModel().selectedItemProperty().isNull());
+
+        setResultConverter(bt -> bt == resumeType ? table.getSelectionModel().getSelectedItem() : null);
+        refresh();
+    }
+
+    private void discard() {
+        ParkedCartRepo.ParkedCart c = table.getSelectionModel().getSelectedItem();
+        if (c == null)
+            return;
+        Alert a = new Alert(Alert.AlertType.CONFIRMATION,
+                "Discard the cart parked at " + c.parkedAt + " (" + c.itemCount + " items)?",
+                ButtonType.OK, ButtonType.CANCEL);
+        a.setHeaderText("Discard parked cart");
+        if (a.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK)
+            return;
+        try {
+            repo.discard(c.id);
+        } catch (Exception ex) {
+            Alert err = new Alert(Alert.AlertType.INFORMATION, ex.getMessage(), ButtonType.OK);
+            err.setHeaderText("Error");
+            err.showAndWait();
+        }
+        refresh();
+    }
+
+    private void refresh() {
+        table.getItems().setAll(repo.list());
+    }
+}
@@ -1,17 +1,24 @@
 package com.superette.ui;
 
+import java.io.File;
 import java.util.List;
 
 import com.superette.model.Product;
+import com.superette.model.Settings;
 import com.superette.repo.ProductRepo;
+import com.superette.repo.SettingsRepo;
+import com.superette.service.CatalogImportService;
 
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.scene.Parent;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableRow;
@@ -19,13 +26,17 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.stage.FileChooser;
 import javafx.util.Callback;
 
 public class ProductsController {
     private final BorderPane root = new BorderPane();
     private final TableView<Product> table = new TableView<>();
     private final ProductRepo repo = new ProductRepo();
+    private final LazyProductList products = new LazyProductList(repo);
     private Runnable onProductsChanged;
+    private long loadedVersion = -1; // row_version the table reflects; -1 = not loaded
+    private final Label importStatus = new Label();
 
     public ProductsController() {
         TableColumn<Product, String> nameCol = new TableColumn<>("Name");
@@ -46,6 +57,10 @@ public class ProductsController {
 
         table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         table.getColumns().addAll(List.of(nameCol, barcodeCol, priceCol, stockCol, editCol));
+        // Rows are paged in from the database in name order; the list cannot be re-sorted
+        for (TableColumn<Product, ?> col : table.getColumns())
+            col.setSortable(false);
+        table.setItems(products);
 
         // Double-click row to edit
         table.setRowFactory(tv -> {
@@ -100,7 +115,21 @@ public class ProductsController {
             }
         });
 
-        HBox form = new HBox(10, name, barcode, price, vat, stock, threshold, addBtn);
+        Button importBtn = new Button("Import CSV...");
+        importBtn.setOnAction(e -> importCsv(importBtn));
+
+        Button repriceBtn = new Button("Reprice...");
+        repriceBtn.setOnAction(e -> {
+            Integer changed = new RepricingDialog().showAndWait().orElse(null);
+            if (changed != null && changed > 0) {
+                refresh();
+                if (onProductsChanged != null)
+                    onProductsChanged.run();
+            }
+        });
+
+        HBox form = new HBox(10, name, barcode, price, vat, stock, threshold, addBtn, importBtn, repriceBtn,
+                importStatus);
         form.setPadding(new Insets(10));
         form.setPrefHeight(60);
 
@@ -142,8 +171,81 @@ public class ProductsController {
         }
     }
 
+    // First call counts the catalog; later calls only look at rows changed since
+    // then, patching cached rows in place or reloading the visible window
     public void refresh() {
-        table.getItems().setAll(repo.findAll());
+        if (loadedVersion < 0) {
+            long version = repo.currentVersion();
+            products.reload();
+            loadedVersion = version;
+            return;
+        }
+        ProductRepo.Changes changes = repo.findChangedSince(loadedVersion);
+        if (!changes.products.isEmpty() && !products.patch(changes.products)) {
+            Product selected = table.getSelectionModel().getSelectedItem();
+            products.reload();
+            if (selected != null)
+                table.getSelectionModel().select(products.indexOf(selected));
+        }
+        loadedVersion = changes.version;
+    }
+
+    // Streams a supplier CSV into the catalog on a background thread
+    private void importCsv(Button importBtn) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import catalog CSV");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv", "*.txt"));
+        File file = chooser.showOpenDialog(root.getScene().getWindow());
+        if (file == null)
+            return;
+        Settings settings = new SettingsRepo().load();
+        double defaultVat = settings.getDefaultVatRate() == null ? 19.0 : settings.getDefaultVatRate();
+        long size = Math.max(1, file.length());
+
+        Task<CatalogImportService.Result> task = new Task<>() {
+            @Override
+            protected CatalogImportService.Result call() throws Exception {
+                return new CatalogImportService().importCsv(file.toPath(), defaultVat, (rows, bytes) -> {
+                    updateMessage(String.format("%d rows read", rows));
+                    updateProgress(bytes, size);
+                });
+            }
+        };
+        ProgressBar bar = new ProgressBar();
+        bar.progressProperty().bind(task.progressProperty());
+        importStatus.textProperty().bind(task.messageProperty());
+        importStatus.setGraphic(bar);
+        importBtn.setDisable(true);
+
+        task.setOnSucceeded(ev -> {
+            finishImport(importBtn);
+            CatalogImportService.Result r = task.getValue();
+            StringBuilder msg = new StringBuilder(String.format(
+                    "%d rows read: %d added, %d updated, %d rejected.", r.rowsRead, r.inserted, r.updated,
+                    r.rejectedCount));
+            for (CatalogImportService.Rejected rej : r.rejected.subList(0, Math.min(20, r.rejected.size())))
+                msg.append('\n').append(rej);
+            if (r.rejectedCount > 20)
+                msg.append("\n...");
+            alert("Import finished", msg.toString());
+        });
+        task.setOnFailed(ev -> {
+            finishImport(importBtn);
+            alert("Import failed", task.getException().getMessage());
+        });
+        Thread t = new Thread(task, "catalog-import");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void finishImport(Button importBtn) {
+        importStatus.textProperty().unbind();
+        importStatus.setText("");
+        importStatus.setGraphic(null);
+        importBtn.setDisable(false);
+        refresh();
+        if (onProductsChanged != null)
+            onProductsChanged.run();
     }
 
     public void setOnProductsChanged(Runnable r) {
@@ -0,0 +1,191 @@
+package com.superette.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.superette.service.RepricingService;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.event.ActionEvent;
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+
+// Bulk repricing: pick products, describe the rule, preview, apply.
+// Returns the number of products changed, or null when cancelled.
+public class RepricingDialog extends Dialog<Integer> {
+    private static final int PREVIEW_ROWS = 200;
+
+    private final RepricingService service = new RepricingService();
+
+    private final TextField categoryField = new TextField();
+    private final TextArea barcodesArea = new TextArea();
+    private final TextField nameField = new TextField();
+    private final CheckBox wholeCatalog = new CheckBox("Whole catalog");
+    private final TextField percentField = new TextField("0");
+    private final TextField deltaField = new TextField("0");
+    private final CheckBox roundCheck = new CheckBox("Round to 0.005 TND");
+    private final TextField vatField = new TextField();
+    private final CheckBox keepNetCheck = new CheckBox("Keep net price (gross follows the VAT)");
+    private final TableView<RepricingService.PreviewLine> previewTable = new TableView<>();
+    private final Label previewLabel = new Label("Preview to see the affected products.");
+    private int applied;
+
+    public RepricingDialog() {
+        setTitle("Bulk Repricing");
+        setHeaderText("Change prices and VAT for many products at once");
+        setResizable(true);
+
+        ButtonType applyType = new ButtonType("Apply", ButtonBar.ButtonData.OK_DONE);
+        getDialogPane().getButtonTypes().addAll(applyType, ButtonType.CANCEL);
+
+        categoryField.setPromptText("Category name");
+        barcodesArea.setPromptText("Barcodes (one per line, or separated by spaces/commas)");
+        barcodesArea.setPrefRowCount(3);
+        nameField.setPromptText("Name contains");
+        vatField.setPromptText("Unchanged");
+        roundCheck.setSelected(true);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.add(new Label("Category:"), 0, 0);
+        grid.add(categoryField, 1, 0);
+        grid.add(new Label("Barcodes:"), 0, 1);
+        grid.add(barcodesArea, 1, 1);
+        grid.add(new Label("Name:"), 0, 2);
+        grid.add(nameField, 1, 2);
+        grid.add(wholeCatalog, 1, 3);
+        grid.add(new Label("Change (%):"), 0, 4);
+        grid.add(percentField, 1, 4);
+        grid.add(new Label("Then add (TND):"), 0, 5);
+        grid.add(deltaField, 1, 5);
+        grid.add(roundCheck, 1, 6);
+        grid.add(new Label("New VAT rate (%):"), 0, 7);
+        grid.add(vatField, 1, 7);
+        grid.add(keepNetCheck, 1, 8);
+
+        TableColumn<RepricingService.PreviewLine, String> nameCol = new TableColumn<>("Name");
+        nameCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().name));
+        TableColumn<RepricingService.PreviewLine, String> priceCol = new TableColumn<>("Price");
+        priceCol.setCellValueFactory(c -> new SimpleStringProperty(
+                money(c.getValue().oldPrice) + " → " + money(c.getValue().newPrice)));
+        TableColumn<RepricingService.PreviewLine, String> vatCol = new TableColumn<>("VAT %");
+        vatCol.setCellValueFactory(c -> new SimpleStringProperty(
+                rate(c.getValue().oldVat) + " → " + rate(c.getValue().newVat)));
+        previewTable.getColumns().addAll(List.of(nameCol, priceCol, vatCol));
+        previewTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        previewTable.setPrefHeight(260);
+
+        Button previewBtn = new Button("Preview");
+        previewBtn.setOnAction(e -> preview());
+
+        VBox content = new VBox(10, grid, previewBtn, previewLabel, previewTable);
+        content.setPadding(new Insets(10));
+        getDialogPane().setContent(content);
+
+        // Apply runs here so a failure keeps the dialog open
+        Node applyBtn = getDialogPane().lookupButton(applyType);
+        applyBtn.addEventFilter(ActionEvent.ACTION, e -> {
+            try {
+                RepricingService.Selection sel = selection();
+                RepricingService.Rule rule = rule();
+                int changed = service.preview(sel, rule, 1).changed;
+                if (!confirm(String.format("Update %d products?", changed))) {
+                    e.consume();
+                    return;
+                }
+                applied = service.apply(sel, rule);
+            } catch (Exception ex) {
+                e.consume();
+                error(ex.getMessage());
+            }
+        });
+
+        setResultConverter(bt -> bt == applyType ? applied : null);
+    }
+
+    private void preview() {
+        try {
+            RepricingService.Preview p = service.preview(selection(), rule(), PREVIEW_ROWS);
+            previewTable.getItems().setAll(p.lines);
+            previewLabel.setText(p.changed > p.lines.size()
+                    ? String.format("%d products will change (first %d shown).", p.changed, p.lines.size())
+                    : String.format("%d products will change.", p.changed));
+        } catch (Exception ex) {
+            error(ex.getMessage());
+        }
+    }
+
+    private RepricingService.Selection selection() {
+        RepricingService.Selection sel = new RepricingService.Selection();
+        sel.category = blankToNull(categoryField.getText());
+        sel.nameFilter = blankToNull(nameField.getText());
+        List<String> barcodes = new ArrayList<>();
+        for (String b : barcodesArea.getText().split("[\\s,;]+")) {
+            if (!b.isEmpty())
+                barcodes.add(b);
+        }
+        sel.barcodes = barcodes;
+        sel.wholeCatalog = wholeCatalog.isSelected();
+        return sel;
+    }
+
+    private RepricingService.Rule rule() {
+        RepricingService.Rule rule = new RepricingService.Rule();
+        rule.percent = number(percentField, "Change (%)");
+        rule.delta = number(deltaField, "Add (TND)");
+        rule.roundTo = roundCheck.isSelected() ? RepricingService.STEP_5_MILLIMES : null;
+        rule.newVatRate = blankToNull(vatField.getText()) == null ? null : number(vatField, "VAT rate");
+        rule.keepNetPrice = keepNetCheck.isSelected();
+        return rule;
+    }
+
+    private static double number(TextField f, String label) {
+        try {
+            return Double.parseDouble(f.getText().trim().replace(',', '.'));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(label + " must be a number");
+        }
+    }
+
+    private boolean confirm(String message) {
+        Alert a = new Alert(Alert.AlertType.CONFIRMATION, message, ButtonType.OK, ButtonType.CANCEL);
+        a.setHeaderText("Confirm repricing");
+        return a.showAndWait().orElse(ButtonType.CANCEL) == ButtonType.OK;
+    }
+
+    private void error(String message) {
+        Alert a = new Alert(Alert.AlertType.INFORMATION, message, ButtonType.OK);
+        a.setHeaderText("Repricing");
+        a.showAndWait();
+    }
+
+    private static String blankToNull(String s) {
+        if (s == null)
+            return null;
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+
+    private static String money(double v) {
+        return String.format(Locale.US, "%.3f", v);
+    }
+
+    private static String rate(double v) {
+        return String.format(Locale.US, "%.3f", v).replaceAll("\\.?0+$", "");
+    }
+}
@@ -3,9 +3,15 @@ package com.superette.ui;
 import java.awt.Desktop;
 import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
+import com.superette.model.Money;
 import com.superette.model.Settings;
+import com.superette.model.VatCalculator;
 import com.superette.repo.SaleRepo;
 import com.superette.repo.SettingsRepo;
 import com.superette.service.ReceiptService;
@@ -19,11 +25,15 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.DatePicker;
+import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.SplitPane;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 
 public class SalesHistoryController {
@@ -36,6 +46,7 @@ public class SalesHistoryController {
     private final DatePicker fromDate = new DatePicker(LocalDate.now());
     private final DatePicker toDate = new DatePicker(LocalDate.now());
     private final Button refreshBtn = new Button("Refresh");
+    private final Button zReportBtn = new Button("Z Report");
 
     // Sales list
     private final TableView<SaleRepo.SaleSummary> table = new TableView<>();
@@ -43,28 +54,39 @@ public class SalesHistoryController {
     // Details
     private final TableView<SaleRepo.SaleLineDetail> details = new TableView<>();
     private final Button pdfBtn = new Button("Generate Receipt (PDF)");
+    private final Button voidBtn = new Button("Void selected");
+    private final Button returnBtn = new Button("Return items...");
 
     public SalesHistoryController() {
         // Filters bar
         HBox filters = new HBox(10,
                 new Label("From:"), fromDate,
                 new Label("To:"), toDate,
-                refreshBtn);
+                refreshBtn, zReportBtn);
         filters.setPadding(new Insets(10));
         refreshBtn.setOnAction(e -> refresh());
+        zReportBtn.setOnAction(e -> onZReport());
 
         // Sales table
         TableColumn<SaleRepo.SaleSummary, Number> idCol = new TableColumn<>("ID");
         idCol.setCellValueFactory(c -> new SimpleIntegerProperty(c.getValue().id));
         TableColumn<SaleRepo.SaleSummary, String> dtCol = new TableColumn<>("Date/Time");
         dtCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().datetime));
+        TableColumn<SaleRepo.SaleSummary, String> regCol = new TableColumn<>("Register");
+        regCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().registerSeq == null
+                ? c.getValue().registerId : c.getValue().registerId + " #" + c.getValue().registerSeq));
         TableColumn<SaleRepo.SaleSummary, String> payCol = new TableColumn<>("Payment");
         payCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().paymentMethod));
-        TableColumn<SaleRepo.SaleSummary, Number> vatCol = new TableColumn<>("VAT");
-        vatCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().totalVat));
-        TableColumn<SaleRepo.SaleSummary, Number> totCol = new TableColumn<>("Total");
-        totCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().totalGross));
-        table.getColumns().addAll(List.of(idCol, dtCol, payCol, vatCol, totCol));
+        TableColumn<SaleRepo.SaleSummary, String> vatCol = new TableColumn<>("VAT");
+        vatCol.setCellValueFactory(c -> new SimpleStringProperty(Money.format(c.getValue().totalVatMillimes)));
+        TableColumn<SaleRepo.SaleSummary, String> totCol = new TableColumn<>("Total");
+        totCol.setCellValueFactory(c -> new SimpleStringProperty(Money.format(c.getValue().totalGrossMillimes)));
+        TableColumn<SaleRepo.SaleSummary, String> statusCol = new TableColumn<>("Status");
+        statusCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().returnedGrossMillimes == 0
+                ? c.getValue().status
+                : c.getValue().status + " (returned " + Money.format(c.getValue().returnedGrossMillimes) + ")"));
+        table.getColumns().addAll(List.of(idCol, dtCol, regCol, payCol, vatCol, totCol, statusCol));
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         table.getSelectionModel().selectedItemProperty().addListener((o, ov, nv) -> loadDetails(nv));
 
@@ -78,14 +100,20 @@ public class SalesHistoryController {
         qtyCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().qty));
         TableColumn<SaleRepo.SaleLineDetail, Number> unitCol = new TableColumn<>("Unit (gross)");
         unitCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().unitPriceGross));
-        TableColumn<SaleRepo.SaleLineDetail, Number> lineCol = new TableColumn<>("Line Total");
-        lineCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().qty * c.getValue().unitPriceGross));
-        details.getColumns().addAll(List.of(nameCol, bcCol, qtyCol, unitCol, lineCol));
+        TableColumn<SaleRepo.SaleLineDetail, String> lineCol = new TableColumn<>("Line Total");
+        lineCol.setCellValueFactory(c -> new SimpleStringProperty(Money.format(
+                VatCalculator.lineGross(Money.of(c.getValue().unitPriceGross), c.getValue().qty))));
+        TableColumn<SaleRepo.SaleLineDetail, Number> returnedCol = new TableColumn<>("Returned");
+        returnedCol.setCellValueFactory(c -> new SimpleDoubleProperty(c.getValue().returnedQty));
+        details.getColumns().addAll(List.of(nameCol, bcCol, qtyCol, unitCol, lineCol, returnedCol));
         details.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
 
         pdfBtn.setOnAction(e -> onGeneratePDF());
+        voidBtn.setOnAction(e -> onVoid());
+        returnBtn.setOnAction(e -> onReturn());
+        HBox detailActions = new HBox(10, pdfBtn, returnBtn, voidBtn);
 
-        SplitPane split = new SplitPane(table, new BorderPane(details, null, null, pdfBtn, null));
+        SplitPane split = new SplitPane(table, new BorderPane(details, null, null, detailActions, null));
         split.setDividerPositions(0.55);
 
         root.setTop(filters);
@@ -118,6 +146,128 @@ public class SalesHistoryController {
         details.getItems().setAll(lines);
     }
 
+    // End-of-day totals for the "To" date
+    private void onZReport() {
+        LocalDate day = toDate.getValue();
+        if (day == null) {
+            alert("Validation", "Select the To date.");
+            return;
+        }
+        try {
+            SaleRepo.ZReport z = saleRepo.zReport(day);
+            StringBuilder sb = new StringBuilder();
+            sb.append("Sales: ").append(z.sales).append('\n');
+            sb.append("Total: ").append(Money.format(z.grossMillimes)).append('\n');
+            sb.append("  Cash: ").append(Money.format(z.cashMillimes)).append('\n');
+            sb.append("  Card: ").append(Money.format(z.cardMillimes)).append('\n');
+            sb.append("VAT: ").append(Money.format(z.vatMillimes)).append('\n');
+            for (SaleRepo.VatBand b : z.bands) {
+                sb.append("  ").append(rate(b.rate)).append("%: gross ").append(Money.format(b.grossMillimes))
+                        .append(", VAT ").append(Money.format(b.vatMillimes)).append('\n');
+            }
+            alert("Z Report " + day, sb.toString());
+        } catch (Exception ex) {
+            alert("Error", ex.getMessage());
+        }
+    }
+
+    // Voids every selected sale at once (e.g. a batch of test sales at day end)
+    private void onVoid() {
+        List<Integer> ids = new ArrayList<>();
+        for (SaleRepo.SaleSummary s : table.getSelectionModel().getSelectedItems()) {
+            if ("COMPLETED".equals(s.status))
+                ids.add(s.id);
+        }
+        if (ids.isEmpty()) {
+            alert("Selection", "Select one or more completed sales.");
+            return;
+        }
+        Alert ask = new Alert(Alert.AlertType.CONFIRMATION,
+                "Void " + ids.size() + " sale(s)? Their items go back to stock.", ButtonType.OK, ButtonType.CANCEL);
+        ask.setHeaderText("Void sales");
+        if (ask.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK)
+            return;
+        try {
+            int voided = saleRepo.voidSales(ids);
+            refresh();
+            alert("Sales voided", voided + " sale(s) voided.");
+        } catch (Exception ex) {
+            alert("Error", ex.getMessage());
+        }
+    }
+
+    private void onReturn() {
+        SaleRepo.SaleSummary sale = table.getSelectionModel().getSelectedItem();
+        if (sale == null || !"COMPLETED".equals(sale.status)) {
+            alert("Selection", "Select a completed sale first.");
+            return;
+        }
+        List<SaleRepo.SaleLineDetail> lines = saleRepo.saleDetails(sale.id);
+        Optional<Map<Integer, Double>> returns = askReturns(sale, lines);
+        if (returns.isEmpty() || returns.get().isEmpty())
+            return;
+        try {
+            long refund = saleRepo.returnItems(sale.id, returns.get());
+            refresh();
+            alert("Items returned", "Refund: " + Money.format("TND", refund));
+        } catch (Exception ex) {
+            alert("Error", ex.getMessage());
+        }
+    }
+
+    // Quantity to return per line (sale_item id -> qty); blank or 0 lines are left out
+    private Optional<Map<Integer, Double>> askReturns(SaleRepo.SaleSummary sale, List<SaleRepo.SaleLineDetail> lines) {
+        Dialog<Map<Integer, Double>> dialog = new Dialog<>();
+        dialog.setTitle("Return items");
+        dialog.setHeaderText("Return items of sale #" + sale.id);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.setPadding(new Insets(10));
+        grid.addRow(0, new Label("Product"), new Label("Sold"), new Label("Returned"), new Label("Return now"));
+        Map<Integer, TextField> fields = new LinkedHashMap<>();
+        int row = 1;
+        for (SaleRepo.SaleLineDetail d : lines) {
+            TextField f = new TextField();
+            f.setPrefColumnCount(6);
+            f.setPromptText("0");
+            f.setDisable(d.returnedQty >= d.qty);
+            fields.put(d.itemId, f);
+            grid.addRow(row++, new Label(d.productName), new Label(fmtQty(d.qty)), new Label(fmtQty(d.returnedQty)),
+                    f);
+        }
+        dialog.getDialogPane().setContent(grid);
+        dialog.setResultConverter(bt -> {
+            if (bt != ButtonType.OK)
+                return null;
+            Map<Integer, Double> out = new LinkedHashMap<>();
+            for (Map.Entry<Integer, TextField> e : fields.entrySet()) {
+                String t = e.getValue().getText().trim().replace(',', '.');
+                if (t.isEmpty())
+                    continue;
+                try {
+                    double qty = Double.parseDouble(t);
+                    if (qty > 0)
+                        out.put(e.getKey(), qty);
+                } catch (NumberFormatException ex) {
+                    alert("Validation", "Quantities must be numbers.");
+                    return null;
+                }
+            }
+            return out;
+        });
+        return dialog.showAndWait();
+    }
+
+    private static String fmtQty(double v) {
+        return rate(v);
+    }
+
+    private static String rate(double v) {
+        return String.format(java.util.Locale.US, "%.3f", v).replaceAll("\\.?0+$", "");
+    }
+
     private void onGeneratePDF() {
         SaleRepo.SaleSummary sale = table.getSelectionModel().getSelectedItem();
         if (sale == null) {
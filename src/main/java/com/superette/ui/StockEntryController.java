@@ -4,11 +4,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.superette.model.Product;
-import com.superette.repo.ProductRepo;
 import com.superette.repo.StockRepo;
+import com.superette.service.AutocompleteService;
 import com.superette.service.LowStockService;
 
 import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Side;
 import javafx.scene.Parent;
@@ -28,7 +29,6 @@ public class StockEntryController {
     private final VBox root = new VBox(10);
     private final StockRepo stockRepo = new StockRepo();
     private final LowStockService lowStockService = new LowStockService();
-    private final ProductRepo productRepo = new ProductRepo();
     private Runnable onStockChanged;
 
     // Form inputs
@@ -39,7 +39,8 @@ public class StockEntryController {
 
     // Autocomplete
     private final ContextMenu suggestions = new ContextMenu();
-    private final PauseTransition suggestDebounce = new PauseTransition(Duration.millis(200));
+    private final AutocompleteService autocomplete = new AutocompleteService(Platform::runLater);
+    private final PauseTransition suggestDebounce = new PauseTransition(Duration.millis(80));
 
     // Low stock banner
     private final VBox lowStockBox = new VBox(5);
@@ -82,16 +83,20 @@ public class StockEntryController {
 
         // Autocomplete wiring
         productField.textProperty().addListener((obs, ov, nv) -> {
-            suggestions.hide();
             suggestDebounce.stop();
-            if (nv == null || nv.trim().length() < 1)
+            if (nv == null || nv.trim().length() < 1) {
+                autocomplete.cancel();
+                suggestions.hide();
                 return;
+            }
             suggestDebounce.setOnFinished(e -> showSuggestions(nv.trim()));
             suggestDebounce.playFromStart();
         });
         productField.focusedProperty().addListener((o, oldV, newV) -> {
-            if (!newV)
+            if (!newV) {
+                autocomplete.cancel();
                 suggestions.hide();
+            }
         });
         productField.setOnAction(e -> onAddStock()); // press Enter to submit
 
@@ -138,7 +143,10 @@ public class StockEntryController {
     }
 
     private void showSuggestions(String q) {
-        List<Product> matches = productRepo.searchByQuery(q, 10);
+        autocomplete.suggest(q, 10, this::showMatches);
+    }
+
+    private void showMatches(List<Product> matches) {
         if (matches.isEmpty()) {
             suggestions.hide();
             return;
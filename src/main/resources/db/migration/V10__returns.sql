@@ -0,0 +1,10 @@
+-- Voids and returns. A voided sale is CANCELLED; returned quantities and their
+-- amounts (taken off the sale's totals in reports) are kept per line and per
+-- sale. Reversing stock movements are ADJUST rows referenced VOID or RETURN.
+ALTER TABLE sale_item ADD COLUMN returned_qty REAL NOT NULL DEFAULT 0;
+ALTER TABLE sale_item ADD COLUMN returned_gross_mil INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE sale_item ADD COLUMN returned_vat_mil INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE sale ADD COLUMN returned_gross_mil INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE sale ADD COLUMN returned_vat_mil INTEGER NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS idx_sale_item_sale ON sale_item(sale_id);
@@ -0,0 +1,4 @@
+-- Key made by the register for each cart, so paying the same cart twice
+-- (double click, retry after a timeout) records one sale
+ALTER TABLE sale ADD COLUMN idempotency_key TEXT;
+CREATE UNIQUE INDEX IF NOT EXISTS idx_sale_idempotency_key ON sale(idempotency_key);
@@ -0,0 +1,25 @@
+-- Voids and returns are reported on the day they happen, not on the day of the
+-- sale they reverse: a voided sale keeps when it was voided, and every return
+-- is a row of its own. The per-line returned_* columns stay as running totals.
+ALTER TABLE sale ADD COLUMN voided_at TEXT;
+
+CREATE TABLE IF NOT EXISTS sale_return (
+  id INTEGER PRIMARY KEY AUTOINCREMENT,
+  sale_item_id INTEGER NOT NULL,
+  datetime TEXT NOT NULL,
+  qty REAL NOT NULL CHECK (qty > 0),
+  gross_mil INTEGER NOT NULL,
+  vat_mil INTEGER NOT NULL,
+  FOREIGN KEY (sale_item_id) REFERENCES sale_item(id)
+);
+
+-- Earlier voids and returns have no time of their own: keep them on the sale's day
+UPDATE sale SET voided_at = datetime WHERE status = 'CANCELLED';
+
+INSERT INTO sale_return(sale_item_id, datetime, qty, gross_mil, vat_mil)
+SELECT si.id, s.datetime, si.returned_qty, si.returned_gross_mil, si.returned_vat_mil
+FROM sale_item si JOIN sale s ON s.id = si.sale_id
+WHERE si.returned_qty > 0;
+
+CREATE INDEX IF NOT EXISTS idx_sale_voided_at ON sale(voided_at);
+CREATE INDEX IF NOT EXISTS idx_sale_return_datetime ON sale_return(datetime);
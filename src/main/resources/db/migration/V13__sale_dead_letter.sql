@@ -0,0 +1,12 @@
+-- Journaled sales that could not be applied for a reason other than a busy
+-- database (a product deleted since, a broken record): kept with the error for
+-- a manager to look at, so the register's journal can move on
+CREATE TABLE IF NOT EXISTS sale_dead_letter (
+  id INTEGER PRIMARY KEY AUTOINCREMENT,
+  register_id TEXT NOT NULL,
+  journal_seq INTEGER NOT NULL,
+  payload BLOB NOT NULL,
+  error TEXT,
+  failed_at TEXT NOT NULL,
+  UNIQUE (register_id, journal_seq)
+);
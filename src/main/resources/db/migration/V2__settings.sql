@@ -0,0 +1,12 @@
+CREATE TABLE IF NOT EXISTS settings (
+  id INTEGER PRIMARY KEY CHECK (id = 1),
+  store_name TEXT,
+  address TEXT,
+  phone TEXT,
+  tax_id TEXT,
+  currency TEXT,
+  default_vat_rate REAL,
+  receipt_footer TEXT
+);
+
+INSERT OR IGNORE INTO settings(id, currency, default_vat_rate) VALUES(1, 'TND', 19.0);
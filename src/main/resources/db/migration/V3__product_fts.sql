@@ -0,0 +1,24 @@
+-- Full-text index over product name/barcode for the FTS search mode.
+-- External-content table: the text lives in product, triggers keep it in sync.
+CREATE VIRTUAL TABLE IF NOT EXISTS product_fts USING fts5(
+  name,
+  barcode,
+  content = 'product',
+  content_rowid = 'id',
+  tokenize = 'unicode61 remove_diacritics 2'
+);
+
+CREATE TRIGGER IF NOT EXISTS product_fts_ai AFTER INSERT ON product BEGIN
+  INSERT INTO product_fts(rowid, name, barcode) VALUES (new.id, new.name, new.barcode);
+END;
+
+CREATE TRIGGER IF NOT EXISTS product_fts_ad AFTER DELETE ON product BEGIN
+  INSERT INTO product_fts(product_fts, rowid, name, barcode) VALUES ('delete', old.id, old.name, old.barcode);
+END;
+
+CREATE TRIGGER IF NOT EXISTS product_fts_au AFTER UPDATE OF name, barcode ON product BEGIN
+  INSERT INTO product_fts(product_fts, rowid, name, barcode) VALUES ('delete', old.id, old.name, old.barcode);
+  INSERT INTO product_fts(rowid, name, barcode) VALUES (new.id, new.name, new.barcode);
+END;
+
+INSERT INTO product_fts(product_fts) VALUES ('rebuild');
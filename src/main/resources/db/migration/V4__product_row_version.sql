@@ -0,0 +1,19 @@
+-- Monotonic change counter on product so screens can fetch only rows changed
+-- since the version they last saw. Triggers bump it on insert and on any
+-- change to a displayed column (including stock).
+ALTER TABLE product ADD COLUMN row_version INTEGER NOT NULL DEFAULT 0;
+
+UPDATE product SET row_version = id;
+
+CREATE INDEX IF NOT EXISTS idx_product_row_version ON product(row_version);
+
+CREATE TRIGGER IF NOT EXISTS product_version_ai AFTER INSERT ON product BEGIN
+  UPDATE product SET row_version = (SELECT COALESCE(MAX(row_version), 0) + 1 FROM product)
+  WHERE id = new.id;
+END;
+
+CREATE TRIGGER IF NOT EXISTS product_version_au AFTER UPDATE OF barcode, name, category_id, price_gross,
+    vat_rate, stock_qty, reorder_threshold, cost_price, active ON product BEGIN
+  UPDATE product SET row_version = (SELECT COALESCE(MAX(row_version), 0) + 1 FROM product)
+  WHERE id = new.id;
+END;
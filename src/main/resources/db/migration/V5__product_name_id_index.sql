@@ -0,0 +1,2 @@
+-- Keyset pagination of the products screen orders by (name, id)
+CREATE INDEX IF NOT EXISTS idx_product_name_id ON product(name, id);
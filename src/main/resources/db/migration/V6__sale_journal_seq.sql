@@ -0,0 +1,4 @@
+-- Sales applied from the sale journal remember their journal sequence number,
+-- so replaying the journal after a crash never records a sale twice
+ALTER TABLE sale ADD COLUMN journal_seq INTEGER;
+CREATE UNIQUE INDEX IF NOT EXISTS idx_sale_journal_seq ON sale(journal_seq);
@@ -0,0 +1,18 @@
+-- Exact money: amounts in millimes (1/1000 TND) as integers, so totals and
+-- Z-reports add up without floating-point drift. The REAL columns are still
+-- written for older tools; the application reads the integer ones.
+ALTER TABLE sale ADD COLUMN total_gross_mil INTEGER;
+ALTER TABLE sale ADD COLUMN total_vat_mil INTEGER;
+ALTER TABLE sale_item ADD COLUMN unit_price_mil INTEGER;
+ALTER TABLE sale_item ADD COLUMN line_gross_mil INTEGER;
+ALTER TABLE sale_item ADD COLUMN line_vat_mil INTEGER;
+
+-- Existing sales keep the totals they were recorded with
+UPDATE sale SET total_gross_mil = CAST(ROUND(total_gross * 1000) AS INTEGER),
+                total_vat_mil = CAST(ROUND(total_vat * 1000) AS INTEGER);
+
+UPDATE sale_item SET unit_price_mil = CAST(ROUND(unit_price_gross * 1000) AS INTEGER),
+                     line_gross_mil = CAST(ROUND(qty * unit_price_gross * 1000) AS INTEGER);
+
+UPDATE sale_item SET line_vat_mil = line_gross_mil
+    - CAST(ROUND(line_gross_mil * 10000.0 / (10000 + ROUND(vat_rate * 100))) AS INTEGER);
@@ -0,0 +1,23 @@
+-- Several registers (tills) can share one database. Each sale records the
+-- register that took it and that register's own running sale number.
+ALTER TABLE sale ADD COLUMN register_id TEXT NOT NULL DEFAULT '1';
+ALTER TABLE sale ADD COLUMN register_seq INTEGER;
+
+CREATE TABLE IF NOT EXISTS register_sequence (
+  register_id TEXT PRIMARY KEY,
+  last_seq INTEGER NOT NULL
+);
+
+-- Existing sales become register 1's, numbered in order
+UPDATE sale SET register_seq = r.n
+FROM (SELECT id, ROW_NUMBER() OVER (ORDER BY id) AS n FROM sale) AS r
+WHERE sale.id = r.id;
+
+INSERT INTO register_sequence(register_id, last_seq)
+SELECT '1', COUNT(*) FROM sale HAVING COUNT(*) > 0;
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_sale_register_seq ON sale(register_id, register_seq);
+
+-- Each register has its own sale journal, so journal numbers are per register
+DROP INDEX IF EXISTS idx_sale_journal_seq;
+CREATE UNIQUE INDEX IF NOT EXISTS idx_sale_register_journal ON sale(register_id, journal_seq);
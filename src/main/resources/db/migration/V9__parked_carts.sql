@@ -0,0 +1,11 @@
+-- Carts put aside while the customer fetches something. Lines are stored as
+-- compact JSON [[product id, qty], ...]; prices are looked up again on resume.
+CREATE TABLE IF NOT EXISTS parked_cart (
+  id INTEGER PRIMARY KEY AUTOINCREMENT,
+  register_id TEXT NOT NULL,
+  parked_at TEXT NOT NULL,
+  label TEXT,
+  item_count INTEGER NOT NULL,
+  total_gross_mil INTEGER NOT NULL,
+  lines TEXT NOT NULL
+);
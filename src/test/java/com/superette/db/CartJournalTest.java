@@ -0,0 +1,84 @@
+package com.superette.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CartJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void cartSurvivesReopeningAfterTheRingWrapsManyTimes() throws Exception {
+        Path file = dir.resolve("cart.ring");
+        Map<Integer, Double> expected = new LinkedHashMap<>();
+        try (CartJournal j = CartJournal.open(file, 16)) {
+            assertTrue(j.recovered().isEmpty());
+            for (int i = 0; i < 200; i++) {
+                int product = 1 + i % 5;
+                double qty = i % 7 == 0 ? 0 : i % 4 + 0.5;
+                j.set(product, qty);
+                if (qty > 0)
+                    expected.put(product, qty);
+                else
+                    expected.remove(product);
+            }
+        }
+        try (CartJournal j = CartJournal.open(file, 16)) {
+            assertEquals(expected, j.recovered());
+            j.clear();
+        }
+        try (CartJournal j = CartJournal.open(file, 16)) {
+            assertTrue(j.recovered().isEmpty());
+        }
+    }
+
+    @Test
+    void onlyRestoredLinesAreKept() throws Exception {
+        Path file = dir.resolve("cart.ring");
+        try (CartJournal j = CartJournal.open(file, 64)) {
+            j.set(7, 2);
+            j.set(9, 1.5);
+        }
+        try (CartJournal j = CartJournal.open(file, 64)) {
+            assertEquals(Map.of(7, 2.0, 9, 1.5), j.recovered());
+        }
+        try (CartJournal j = CartJournal.open(file, 64)) { // not answered yet: still there
+            assertEquals(Map.of(7, 2.0, 9, 1.5), j.recovered());
+            j.set(7, 2); // restored; 9 was left out
+        }
+        try (CartJournal j = CartJournal.open(file, 64)) {
+            assertEquals(Map.of(7, 2.0), j.recovered());
+        }
+    }
+
+    @Test
+    void tornLastChangeIsIgnored() throws Exception {
+        Path file = dir.resolve("cart.ring");
+        try (CartJournal j = CartJournal.open(file, 64)) {
+            j.set(7, 2);   // first change writes the whole cart: seq 1, then its marker at seq 2
+            j.set(9, 1.5); // seq 3
+            j.set(7, 5);   // seq 4
+        }
+        // Flip a byte of the last record's quantity, as a write cut short would
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(16 + 4 * 24 + 16);
+            int b = raf.read();
+            raf.seek(16 + 4 * 24 + 16);
+            raf.write(b ^ 0x40);
+        }
+        try (CartJournal j = CartJournal.open(file, 64)) {
+            assertEquals(List.of(7, 9), List.copyOf(j.recovered().keySet()));
+            assertEquals(2, j.recovered().get(7), 1e-9);
+            assertEquals(1.5, j.recovered().get(9), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.superette.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DatabaseTest {
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+    }
+
+    @Test
+    void freshDatabaseIsMigratedOnceAndOpenedInWalMode() throws Exception {
+        String db = dir.resolve("pos.db").toString();
+        Database.init(db);
+        try (Connection conn = Database.getConnection()) {
+            assertEquals(Migrations.latestVersion(), Migrations.currentVersion(conn));
+            assertEquals(0, Migrations.migrate(conn), "second run should be a no-op");
+            try (Statement st = conn.createStatement();
+                    ResultSet rs = st.executeQuery("PRAGMA journal_mode")) {
+                rs.next();
+                assertEquals("wal", rs.getString(1));
+            }
+        }
+    }
+
+    @Test
+    void legacyDatabaseWithoutVersionTableIsUpgraded() throws Exception {
+        String db = dir.resolve("legacy.db").toString();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE product (id INTEGER PRIMARY KEY AUTOINCREMENT, barcode TEXT, " +
+                    "name TEXT NOT NULL, category_id INTEGER, price_gross REAL NOT NULL, vat_rate REAL NOT NULL, " +
+                    "stock_qty REAL NOT NULL DEFAULT 0, reorder_threshold REAL NOT NULL DEFAULT 0, " +
+                    "cost_price REAL, active INTEGER NOT NULL DEFAULT 1)");
+            st.executeUpdate("INSERT INTO product(name, price_gross, vat_rate) VALUES('Milk 1L', 1.2, 19)");
+        }
+
+        Database.init(db);
+        try (Connection conn = Database.getConnection();
+                Statement st = conn.createStatement()) {
+            assertEquals(Migrations.latestVersion(), Migrations.currentVersion(conn));
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM product")) {
+                rs.next();
+                assertEquals(1, rs.getInt(1));
+            }
+            try (ResultSet rs = st.executeQuery("SELECT currency FROM settings WHERE id = 1")) {
+                assertTrue(rs.next());
+                assertEquals("TND", rs.getString(1));
+            }
+        }
+    }
+
+    @Test
+    void writerRetriesWhileAnotherRegisterHoldsTheLock() throws Exception {
+        String db = dir.resolve("shared.db").toString();
+        Database.init(db);
+        CountDownLatch retried = new CountDownLatch(1);
+        Database.writer().onBusyRetry = retried::countDown;
+        try (Connection other = DriverManager.getConnection("jdbc:sqlite:" + db);
+                Statement st = other.createStatement()) {
+            st.execute("BEGIN IMMEDIATE");
+            CompletableFuture<Integer> write = Database.writer().submit(conn -> {
+                try (Statement ins = conn.createStatement()) {
+                    return ins.executeUpdate("INSERT INTO category(name) VALUES('Boissons')");
+                }
+            });
+            assertTrue(retried.await(5, TimeUnit.SECONDS), "writer should back off and retry");
+            assertFalse(write.isDone());
+            st.execute("COMMIT");
+            assertEquals(1, write.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void foreignKeysAreEnforced() throws Exception {
+        Database.init(dir.resolve("fk.db").toString());
+        try (Connection conn = Database.getConnection();
+                Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO sale(datetime, total_gross, total_vat, payment_method, status) " +
+                    "VALUES(datetime('now'), 0, 0, 'CASH', 'COMPLETED')");
+            assertThrows(SQLException.class, () -> st.executeUpdate("INSERT INTO sale_item(sale_id, product_id, " +
+                    "qty, unit_price_gross, vat_rate) VALUES(last_insert_rowid(), 999, 1, 1, 19)"));
+        }
+    }
+
+    @Test
+    void pooledConnectionsAreReusedAndReturnedInAutoCommit() throws Exception {
+        Database.init(dir.resolve("pool.db").toString());
+        try (Connection conn = Database.getConnection()) {
+            conn.setAutoCommit(false);
+        }
+        for (int i = 0; i < 20; i++) {
+            try (Connection conn = Database.getConnection()) {
+                assertTrue(conn.getAutoCommit());
+            }
+        }
+    }
+
+    @Test
+    void preparedStatementsAreReusedPerConnection() throws Exception {
+        Database.init(dir.resolve("stmt.db").toString());
+        String sql = "SELECT COUNT(*) FROM product WHERE id > ?";
+        try (Connection conn = Database.getConnection()) {
+            PreparedStatement first = Database.prepare(conn, sql);
+            PreparedStatement nested = Database.prepare(conn, sql); // borrowed twice: a separate statement
+            assertNotSame(first, nested);
+            nested.close();
+            first.setInt(1, 0);
+            first.close();
+            try (PreparedStatement again = Database.prepare(conn, sql)) {
+                assertSame(first, again);
+                assertFalse(again.isClosed());
+                again.setInt(1, 0);
+                try (ResultSet rs = again.executeQuery()) {
+                    assertTrue(rs.next());
+                }
+            }
+        }
+    }
+}
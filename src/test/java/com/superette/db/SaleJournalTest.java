@@ -0,0 +1,63 @@
+package com.superette.db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SaleJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsSurviveReopeningAndATornTailIsIgnored() throws Exception {
+        Path file = dir.resolve("sales.journal");
+        try (SaleJournal j = SaleJournal.open(file, 4096)) {
+            assertEquals(1, j.append(bytes("first")));
+            assertEquals(2, j.append(bytes("second")));
+            assertEquals(3, j.append(bytes("third")));
+        }
+        // Flip a payload byte of the last record, as a write cut short would
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            int third = 16 + (16 + 5) + (16 + 6);
+            raf.seek(third + 16);
+            raf.write('T' ^ 't');
+        }
+        try (SaleJournal j = SaleJournal.open(file, 4096)) {
+            assertEquals(2, j.recovered().size());
+            assertArrayEquals(bytes("second"), j.recovered().get(1).payload);
+            assertEquals(2, j.pending());
+            assertEquals(3, j.append(bytes("again")));
+        }
+    }
+
+    @Test
+    void fullyAppliedJournalIsRewoundWithoutReusingSequenceNumbers() throws Exception {
+        Path file = dir.resolve("sales.journal");
+        try (SaleJournal j = SaleJournal.open(file, 80)) {
+            long a = j.append(bytes("0123456789"));
+            assertEquals(-1, j.append(bytes("0123456789abcdefghijklmnopqrstuvwxyz"))); // no room left
+            j.applied(a);
+            assertEquals(0, j.pending());
+            assertEquals(2, j.append(bytes("0123456789abcdefghijklmnopqrstuvwxyz")));
+        }
+        try (SaleJournal j = SaleJournal.open(file, 80)) {
+            assertEquals(1, j.recovered().size());
+            assertEquals(2, j.recovered().get(0).seq);
+            j.applied(2);
+        }
+        try (SaleJournal j = SaleJournal.open(file, 80)) {
+            assertEquals(0, j.recovered().size());
+            assertEquals(3, j.append(bytes("x")));
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,54 @@
+package com.superette.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.jupiter.api.Test;
+
+public class MoneyTest {
+    @Test
+    void divideRoundsLikeBigDecimal() {
+        long[] nums = { 25, 15, -25, -15, 24, 26, -24, -26, 7, -7, 30 };
+        RoundingMode[] modes = { RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING, RoundingMode.FLOOR,
+                RoundingMode.HALF_UP, RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN };
+        for (long n : nums) {
+            for (RoundingMode m : modes) {
+                long expected = BigDecimal.valueOf(n).divide(BigDecimal.TEN, 0, m).longValueExact();
+                assertEquals(expected, Money.divide(n, 10, m), n + " " + m);
+            }
+        }
+        assertThrows(ArithmeticException.class, () -> Money.divide(7, 10, RoundingMode.UNNECESSARY));
+        assertEquals(3, Money.divide(30, 10, RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    void convertsAndFormatsMillimes() {
+        assertEquals(2300, Money.of(2.3));
+        assertEquals(-5, Money.of(-0.0049999999));
+        assertEquals(1, Money.of(0.0005));
+        assertEquals("12.345", Money.format(12345));
+        assertEquals("0.005", Money.format(5));
+        assertEquals("-1.050", Money.format(-1050));
+        assertEquals("TND 0.000", Money.format("TND", 0));
+    }
+
+    @Test
+    void linesAddUpToTheTotalsWithoutDrift() {
+        VatCalculator calc = new VatCalculator();
+        for (int i = 0; i < 1000; i++)
+            calc.add(Money.of(0.1), 1, 19);
+        assertEquals(100_000, calc.gross()); // 1000 x 0.1 as doubles is 99.9999999999986
+
+        calc.reset();
+        assertEquals(767, calc.add(Money.of(2.3), 1 / 3.0, 19)); // 0.7666... rounded half up
+        assertEquals(366, calc.add(Money.of(1.22), 0.3, 7));
+        assertEquals(1133, calc.gross());
+        // 767 - 767 / 1.19 = 122.45 -> 122; 366 - 366 / 1.07 = 23.94 -> 24
+        assertEquals(146, calc.vat());
+        assertEquals(987, calc.net());
+        assertEquals(0, VatCalculator.vatIncluded(1000, 0));
+    }
+}
@@ -0,0 +1,108 @@
+package com.superette.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.service.CatalogCache;
+
+public class ParkedCartRepoTest {
+    @TempDir
+    Path dir;
+
+    private final ProductRepo products = new ProductRepo();
+    private final ParkedCartRepo parked = new ParkedCartRepo();
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("parked.db").toString());
+        CatalogCache.get().invalidateAll();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void parkedCartResumesOnceWithItsLinesInOrder() {
+        int sugar = insert("Sucre 1kg", 1.4);
+        int cheese = insert("Fromage 200g", 3.25);
+        int first = parked.park("  red jacket ", List.of(
+                new ParkedCartRepo.ParkedLine(cheese, 0.35),
+                new ParkedCartRepo.ParkedLine(sugar, 2),
+                new ParkedCartRepo.ParkedLine(cheese, 0.15)), 5_425);
+        int second = parked.park("", List.of(new ParkedCartRepo.ParkedLine(sugar, 1)), 1_400);
+
+        List<ParkedCartRepo.ParkedCart> list = parked.list();
+        assertEquals(2, list.size());
+        assertEquals(first, list.get(0).id);
+        assertEquals("red jacket", list.get(0).label);
+        assertEquals(2, list.get(0).itemCount);
+        assertEquals(5_425, list.get(0).totalGrossMillimes);
+        assertEquals("1", list.get(0).registerId);
+        assertNull(list.get(1).label);
+
+        List<ParkedCartRepo.ParkedLine> lines = parked.take(first);
+        assertEquals(2, lines.size());
+        assertEquals(cheese, lines.get(0).productId);
+        assertEquals(0.5, lines.get(0).qty, 1e-9);
+        assertEquals(sugar, lines.get(1).productId);
+        assertEquals(2, lines.get(1).qty, 1e-9);
+        assertNull(parked.take(first), "a cart can only be resumed once");
+        assertEquals(1, parked.count());
+        assertEquals(second, parked.list().get(0).id);
+        assertFalse(parked.discard(first));
+        assertThrows(IllegalArgumentException.class, () -> parked.park(null, List.of(), 0));
+    }
+
+    @Test
+    void findByIdsLoadsProductsTheCacheDoesNotKnowInOneQuery() throws Exception {
+        int sugar = insert("Sucre 1kg", 1.4);
+        int milk = insert("Lait 1L", 1.2);
+        CatalogCache.get().findById(sugar);
+        int oil;
+        try (Connection conn = Database.getConnection(); Statement st = conn.createStatement()) {
+            // Added by another register: not in this process's cache
+            st.executeUpdate("INSERT INTO product(name, price_gross, vat_rate) VALUES('Huile 1L', 4.0, 19)");
+            try (ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+                rs.next();
+                oil = rs.getInt(1);
+            }
+        }
+        assertNull(CatalogCache.get().findById(oil));
+        Map<Integer, Product> found = products.findByIds(List.of(oil, sugar, 9999, milk));
+
+        assertEquals(3, found.size());
+        assertEquals("Huile 1L", found.get(oil).getName());
+        assertEquals(1.2, found.get(milk).getPriceGross(), 1e-9);
+        assertNull(found.get(9999));
+        assertEquals(oil, CatalogCache.get().findById(oil).getId());
+    }
+
+    private int insert(String name, double price) {
+        Product p = new Product();
+        p.setName(name);
+        p.setPriceGross(price);
+        p.setVatRate(19);
+        p.setStockQty(10);
+        products.insert(p);
+        return p.getId();
+    }
+}
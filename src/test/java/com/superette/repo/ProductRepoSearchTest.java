@@ -0,0 +1,85 @@
+package com.superette.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo.SearchMode;
+import com.superette.service.CatalogCache;
+
+public class ProductRepoSearchTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("search.db").toString());
+        CatalogCache.get().invalidateAll();
+        ProductRepo repo = new ProductRepo();
+        repo.insert(product("Sucre blanc 1kg", "6191234567897"));
+        repo.insert(product("Lait demi-écrémé 1L", "61300002"));
+        repo.insert(product("Lait entier 1L", "61300003"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void allModesFindTheSameProducts() {
+        // Ranking differs per mode (bm25 vs name order), so compare sorted names
+        for (SearchMode mode : SearchMode.values()) {
+            ProductRepo repo = new ProductRepo(mode);
+            assertEquals(List.of("Lait demi-écrémé 1L", "Lait entier 1L"), names(repo.searchByQuery("lait", 10)), mode.name());
+            assertEquals(List.of("Sucre blanc 1kg"), names(repo.searchByQuery("sucre", 10)), mode.name());
+        }
+    }
+
+    @Test
+    void ftsIndexFollowsInsertsUpdatesAndDeactivation() {
+        ProductRepo fts = new ProductRepo(SearchMode.FTS);
+        assertEquals(List.of("Lait demi-écrémé 1L"), names(fts.searchByQuery("ecreme", 10)));
+
+        Product p = fts.searchByQuery("entier", 10).get(0).copy();
+        p.setName("Lait fermenté 1L");
+        fts.update(p);
+        assertTrue(fts.searchByQuery("entier", 10).isEmpty());
+        assertEquals(List.of("Lait fermenté 1L"), names(fts.searchByQuery("ferm", 10)));
+
+        p.setActive(false);
+        fts.update(p);
+        assertTrue(fts.searchByQuery("ferm", 10).isEmpty());
+    }
+
+    @Test
+    void ftsQueryQuotesEveryTokenAsPrefix() {
+        assertEquals("\"lait\"* \"1L\"*", ProductRepo.ftsPrefixQuery(" lait, 1L "));
+        assertEquals("", ProductRepo.ftsPrefixQuery("\"*"));
+    }
+
+    private static Product product(String name, String barcode) {
+        Product p = new Product();
+        p.setName(name);
+        p.setBarcode(barcode);
+        p.setPriceGross(1.5);
+        p.setVatRate(19);
+        p.setStockQty(10);
+        return p;
+    }
+
+    private static List<String> names(List<Product> products) {
+        return products.stream().map(Product::getName).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,97 @@
+package com.superette.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.service.CatalogCache;
+
+public class ProductRepoTest {
+    @TempDir
+    Path dir;
+
+    private final ProductRepo repo = new ProductRepo();
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("products.db").toString());
+        CatalogCache.get().invalidateAll();
+        for (String name : List.of("Sucre 1kg", "Lait 1L", "Huile 1L", "Lait 1L", "Café 250g"))
+            repo.insert(product(name));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void pagesFollowNameThenIdOrder() {
+        // ids 1..5 in insert order; the two "Lait 1L" rows are told apart by id
+        assertEquals(5, repo.countAll());
+        List<Product> first = repo.findPage(null, 2);
+        assertEquals(List.of(5, 3), ids(first));
+        List<Product> second = repo.findPage(first.get(1), 2);
+        assertEquals(List.of(2, 4), ids(second));
+        assertEquals(List.of(1), ids(repo.findPage(second.get(1), 2)));
+        assertEquals(List.of(), ids(repo.findPage(repo.findAt(4), 2)));
+
+        assertEquals(4, repo.findAt(3).getId());
+        assertNull(repo.findAt(5));
+        assertEquals(2, repo.positionOf(second.get(0)));
+        assertEquals(3, repo.positionOf(second.get(1)));
+        assertEquals(0, repo.positionOf(first.get(0)));
+    }
+
+    @Test
+    void changesSinceAVersionAreExactlyTheRowsChangedAfterIt() throws Exception {
+        long start = repo.currentVersion();
+        assertEquals(List.of(), repo.findChangedSince(start).products);
+
+        Product oil = repo.findChangedSince(0).products.stream().filter(p -> p.getId() == 3).findFirst().get();
+        oil.setPriceGross(4.2);
+        repo.update(oil);
+        oil.setPriceGross(4.5);
+        repo.update(oil); // twice: still one row
+        long afterUpdate = repo.currentVersion();
+        assertTrue(afterUpdate > start);
+        ProductRepo.Changes changes = repo.findChangedSince(start);
+        assertEquals(List.of(3), ids(changes.products));
+        assertEquals(4.5, changes.products.get(0).getPriceGross(), 1e-9);
+        assertEquals(afterUpdate, changes.version);
+
+        repo.insert(product("Thé 100g"));
+        changes = repo.findChangedSince(afterUpdate);
+        assertEquals(List.of(6), ids(changes.products));
+        assertEquals(List.of(3, 6), ids(repo.findChangedSince(start).products));
+        assertEquals(List.of(), repo.findChangedSince(repo.currentVersion()).products);
+
+        long beforeSale = repo.currentVersion();
+        Database.write(conn -> conn.createStatement().executeUpdate("UPDATE product SET stock_qty = 9 WHERE id = 1"));
+        assertEquals(List.of(1), ids(repo.findChangedSince(beforeSale).products)); // stock moves count too
+    }
+
+    private static List<Integer> ids(List<Product> products) {
+        return products.stream().map(Product::getId).collect(Collectors.toList());
+    }
+
+    private static Product product(String name) {
+        Product p = new Product();
+        p.setName(name);
+        p.setPriceGross(1);
+        p.setVatRate(19);
+        return p;
+    }
+}
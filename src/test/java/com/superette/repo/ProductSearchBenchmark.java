@@ -0,0 +1,71 @@
+package com.superette.repo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import com.superette.db.Database;
+import com.superette.repo.ProductRepo.SearchMode;
+
+// Manual benchmark of the autocomplete backends (not run by surefire); the last
+// queries are misspelt and only answered by FUZZY:
+// mvn test-compile exec:java -Dexec.classpathScope=test
+//     -Dexec.mainClass=com.superette.repo.ProductSearchBenchmark -Dexec.args=1000000
+public class ProductSearchBenchmark {
+    private static final String[] WORDS = { "lait", "sucre", "huile", "farine", "tomate", "thon", "cafe",
+            "the", "pates", "riz", "savon", "biscuit", "jus", "eau", "yaourt", "fromage", "harissa", "semoule" };
+    private static final String[] QUERIES = { "la", "lait", "suc", "huile 1", "tomat", "6190000012", "harissa",
+            "semoule fine", "zzz", "frmage", "harisa", "yogurt", "tomate sucr" };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("pos-bench");
+        Database.init(dir.resolve("bench.db").toString());
+        populate(rows);
+
+        for (SearchMode mode : SearchMode.values()) {
+            ProductRepo repo = new ProductRepo(mode);
+            repo.searchByQuery("warmup", 10); // builds the index for INDEX mode
+            for (String q : QUERIES) {
+                long[] samples = new long[200];
+                for (int i = 0; i < 20; i++)
+                    repo.searchByQuery(q, 10);
+                for (int i = 0; i < samples.length; i++) {
+                    long t0 = System.nanoTime();
+                    repo.searchByQuery(q, 10);
+                    samples[i] = System.nanoTime() - t0;
+                }
+                Arrays.sort(samples);
+                System.out.printf(Locale.US, "%-6s %-14s median %8.3f ms  max %8.3f ms%n", mode, q,
+                        samples[samples.length / 2] / 1e6, samples[samples.length - 1] / 1e6);
+            }
+        }
+        Database.shutdown();
+    }
+
+    private static void populate(int rows) throws Exception {
+        Random rnd = new Random(42);
+        int batch = 50_000;
+        for (int start = 0; start < rows; start += batch) {
+            int from = start;
+            int to = Math.min(rows, start + batch);
+            Database.write(conn -> {
+                try (PreparedStatement ps = Database.prepare(conn,
+                        "INSERT INTO product(barcode, name, price_gross, vat_rate, stock_qty) VALUES(?,?,?,19,10)")) {
+                    for (int i = from; i < to; i++) {
+                        ps.setString(1, String.valueOf(6_190_000_000_000L + i));
+                        ps.setString(2, WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)]
+                                + " " + (1 + rnd.nextInt(999)) + "g #" + i);
+                        ps.setDouble(3, 0.5 + rnd.nextInt(20_000) / 1000.0);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                return null;
+            });
+        }
+    }
+}
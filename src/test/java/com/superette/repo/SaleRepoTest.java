@@ -0,0 +1,394 @@
+package com.superette.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.service.CatalogCache;
+import com.superette.service.StockReservations;
+
+public class SaleRepoTest {
+    @TempDir
+    Path dir;
+
+    private final ProductRepo products = new ProductRepo();
+    private final SaleRepo sales = new SaleRepo();
+    private int sugar;
+    private int milk;
+    private int oil;
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("sales.db").toString());
+        CatalogCache.get().invalidateAll();
+        sugar = insert("Sucre 1kg", 5);
+        milk = insert("Lait 1L", 2);
+        oil = insert("Huile 1L", 0.3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void mergesRepeatedLinesOfTheSameProduct() {
+        int id = sales.createSale(List.of(
+                new SaleRepo.SaleItem(sugar, 2, 1.4, 19),
+                new SaleRepo.SaleItem(milk, 1, 1.2, 7),
+                new SaleRepo.SaleItem(sugar, 3, 1.4, 19),
+                new SaleRepo.SaleItem(oil, 0.1, 4.0, 19),
+                new SaleRepo.SaleItem(oil, 0.2, 4.0, 19)), "CASH");
+
+        assertEquals(5, sales.saleDetails(id).size());
+        assertEquals(0, stock(sugar), 1e-9);
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(0, stock(oil), 1e-9); // 0.1 + 0.2 is not quite 0.3 in binary
+        assertEquals(0, CatalogCache.get().findById(sugar).getStockQty(), 1e-9);
+    }
+
+    @Test
+    void reportsEveryShortProductAndWritesNothing() {
+        SaleRepo.InsufficientStockException e = assertThrows(SaleRepo.InsufficientStockException.class,
+                () -> sales.createSale(List.of(
+                        new SaleRepo.SaleItem(sugar, 4, 1.4, 19),
+                        new SaleRepo.SaleItem(milk, 3, 1.2, 7),
+                        new SaleRepo.SaleItem(sugar, 2, 1.4, 19),
+                        new SaleRepo.SaleItem(9999, 1, 1.0, 19),
+                        new SaleRepo.SaleItem(oil, 0.3, 4.0, 19)), "CARD"));
+
+        assertEquals(3, e.shortages.size());
+        assertEquals(sugar, e.shortages.get(0).productId);
+        assertEquals(6, e.shortages.get(0).requested, 1e-9);
+        assertEquals(milk, e.shortages.get(1).productId);
+        assertEquals(9999, e.shortages.get(2).productId);
+        assertTrue(e.getMessage().contains("Sucre 1kg: have 5, need 6"), e.getMessage());
+        assertTrue(e.getMessage().contains("Product not found id=9999"), e.getMessage());
+
+        assertEquals(5, stock(sugar), 1e-9);
+        assertEquals(0.3, stock(oil), 1e-9);
+        assertEquals(5, CatalogCache.get().findById(sugar).getStockQty(), 1e-9);
+    }
+
+    @Test
+    void reservedCartsStillFailCleanlyWhenStockMovedUnderneath() throws Exception {
+        StockReservations.Cart cart = StockReservations.get().openCart();
+        assertTrue(cart.set(sugar, 4));
+        assertTrue(cart.set(milk, 1));
+        // Another register sold sugar without going through this process's ledger
+        Database.write(conn -> conn.createStatement().executeUpdate(
+                "UPDATE product SET stock_qty = 3 WHERE id = " + sugar));
+
+        List<SaleRepo.SaleItem> items = List.of(new SaleRepo.SaleItem(sugar, 4, 1.4, 19),
+                new SaleRepo.SaleItem(milk, 1, 1.2, 7));
+        SaleRepo.InsufficientStockException e = assertThrows(SaleRepo.InsufficientStockException.class,
+                () -> sales.createSale(items, "CASH", cart));
+        assertEquals(1, e.shortages.size());
+        assertEquals(3, e.shortages.get(0).available, 1e-9);
+        assertEquals(2, stock(milk), 1e-9);
+        assertEquals(4, cart.held(sugar), 1e-9); // kept until the sale goes through
+
+        assertTrue(cart.set(sugar, 3));
+        sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 3, 1.4, 19),
+                new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CASH", cart);
+        assertEquals(0, stock(sugar), 1e-9);
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(0, cart.held(milk), 1e-9);
+    }
+
+    @Test
+    void asyncSalesCompleteAfterTheCommit() throws Exception {
+        CompletableFuture<Integer> first = sales.createSaleAsync(
+                List.of(new SaleRepo.SaleItem(sugar, 2, 1.4, 19)), "CASH", null);
+        CompletableFuture<Integer> second = sales.createSaleAsync(
+                List.of(new SaleRepo.SaleItem(milk, 5, 1.2, 7)), "CARD", null);
+        CompletableFuture<Integer> invalid = sales.createSaleAsync(List.of(), "CASH", null);
+
+        assertTrue(first.get(5, TimeUnit.SECONDS) > 0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof SaleRepo.InsufficientStockException, e.getCause().toString());
+        e = assertThrows(ExecutionException.class, () -> invalid.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalArgumentException, e.getCause().toString());
+        assertEquals(3, CatalogCache.get().findById(sugar).getStockQty(), 1e-9);
+        assertEquals(2, stock(milk), 1e-9);
+    }
+
+    @Test
+    void journaledSalesAreConfirmedFirstAndReplayedOnlyOnce() throws Exception {
+        StockReservations.Cart cart = StockReservations.get().openCart();
+        List<SaleRepo.SaleItem> items = List.of(new SaleRepo.SaleItem(sugar, 2, 1.4, 19));
+        assertEquals(null, sales.journalSale(items, "CASH", cart)); // nothing reserved: normal checkout
+        assertTrue(cart.set(sugar, 2));
+
+        SaleRepo.JournaledSale j = sales.journalSale(items, "CASH", cart);
+        int saleId = j.committed.get(5, TimeUnit.SECONDS);
+        assertEquals(3, stock(sugar), 1e-9);
+        assertEquals(1, sales.saleDetails(saleId).size());
+        assertEquals(0, Database.journal().pending());
+
+        // A sale confirmed just before a crash is applied at the next start, once
+        Database.journal().append(SaleRepo.encode("CARD", System.currentTimeMillis(),
+                List.of(new SaleRepo.SaleItem(milk, 1, 1.2, 7))));
+        Database.shutdown();
+        Database.init(dir.resolve("sales.db").toString());
+        assertEquals(1, sales.replayJournal());
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(1, sales.replayJournal()); // same records again, already in the database
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(2, sales.listSales(java.time.LocalDate.now().minusDays(1),
+                java.time.LocalDate.now().plusDays(1)).size());
+    }
+
+    @Test
+    void journaledSalesThatCannotBeAppliedAreSetAside() throws Exception {
+        Database.journal().append(SaleRepo.encode("CASH", System.currentTimeMillis(),
+                List.of(new SaleRepo.SaleItem(9999, 1, 1.0, 19)))); // product deleted since
+        byte[] unknownMethod = SaleRepo.encode("CARD", 0, List.of(new SaleRepo.SaleItem(sugar, 1, 1.4, 19)));
+        unknownMethod[0] = 7;
+        Database.journal().append(unknownMethod);
+        assertThrows(IllegalArgumentException.class, () -> SaleRepo.encode("CHEQUE", 0, List.of()));
+        Database.shutdown();
+        Database.init(dir.resolve("sales.db").toString());
+
+        assertEquals(2, sales.replayJournal());
+        assertEquals(2, sales.deadLetterCount());
+        assertEquals(0, Database.journal().pending());
+        assertEquals(0, count("SELECT COUNT(*) FROM sale"));
+    }
+
+    @Test
+    void journaledSalesThatOversellAreKeptAndFlagged() throws Exception {
+        StockReservations.Cart cart = StockReservations.get().openCart();
+        assertTrue(cart.set(sugar, 4));
+        assertTrue(cart.set(milk, 1));
+        Database.write(conn -> conn.createStatement().executeUpdate(
+                "UPDATE product SET stock_qty = 3 WHERE id = " + sugar));
+
+        int saleId = sales.journalSale(List.of(new SaleRepo.SaleItem(sugar, 4, 1.4, 19),
+                new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CASH", cart).committed.get(5, TimeUnit.SECONDS);
+        assertEquals(2, sales.saleDetails(saleId).size());
+        assertEquals(0, stock(sugar), 1e-9);
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(1, count("SELECT COUNT(*) FROM stock_movement WHERE type = 'ADJUST' " +
+                "AND reference = 'OVERSELL' AND qty = 1 AND product_id = " + sugar));
+    }
+
+    @Test
+    void zReportSumsExactMillimesPerMethodAndRate() {
+        for (int i = 0; i < 3; i++) // 3 x 0.1 sums to 0.30000000000000004 in doubles
+            sales.createSale(List.of(new SaleRepo.SaleItem(oil, 0.1, 1.0, 19)), "CASH");
+        sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 3, 1.415, 19),
+                new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CARD");
+
+        SaleRepo.ZReport z = sales.zReport(java.time.LocalDate.now());
+        assertEquals(4, z.sales);
+        assertEquals(300, z.cashMillimes);
+        assertEquals(4245 + 1200, z.cardMillimes);
+        assertEquals(z.cashMillimes + z.cardMillimes, z.grossMillimes);
+        assertEquals(2, z.bands.size());
+        assertEquals(7, z.bands.get(0).rate, 1e-9);
+        assertEquals(79, z.bands.get(0).vatMillimes); // 1200 - 1200 / 1.07
+        assertEquals(3 * 100 + 4245, z.bands.get(1).grossMillimes);
+        assertEquals(3 * 16 + 678, z.bands.get(1).vatMillimes);
+        assertEquals(z.bands.get(0).vatMillimes + z.bands.get(1).vatMillimes, z.vatMillimes);
+        assertEquals(5445, sales.getSale(4).totalGrossMillimes);
+    }
+
+    @Test
+    void eachRegisterNumbersItsOwnSales() {
+        String db = dir.resolve("sales.db").toString();
+        int a1 = sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 1, 1.4, 19)), "CASH");
+        Database.init(db, "2");
+        int b1 = sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 1, 1.4, 19)), "CASH");
+        Database.init(db, "1");
+        int a2 = sales.createSale(List.of(new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CARD");
+
+        assertEquals("1", sales.getSale(a1).registerId);
+        assertEquals(1, sales.getSale(a1).registerSeq);
+        assertEquals("2", sales.getSale(b1).registerId);
+        assertEquals(1, sales.getSale(b1).registerSeq);
+        assertEquals(2, sales.getSale(a2).registerSeq);
+        assertEquals(3, stock(sugar), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> Database.init(db, "till 3"));
+    }
+
+    @Test
+    void reservationsAreNotTrustedOnceAnotherRegisterSharesTheDatabase() {
+        String db = dir.resolve("sales.db").toString();
+        StockReservations.Cart cart = StockReservations.get().openCart();
+        assertTrue(cart.set(sugar, 1));
+        List<SaleRepo.SaleItem> items = List.of(new SaleRepo.SaleItem(sugar, 1, 1.4, 19));
+        assertFalse(Database.isShared());
+
+        Database.init(db, "2"); // a second till starts on the same file
+        Database.init(db, "1");
+        assertTrue(Database.isShared());
+        assertEquals(null, sales.journalSale(items, "CASH", cart));
+        cart.releaseAll();
+    }
+
+    @Test
+    void voidingSalesGivesTheStockBackOnce() {
+        int a = sales.createSale(List.of(
+                new SaleRepo.SaleItem(sugar, 2, 1.4, 19),
+                new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CASH");
+        int b = sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 1, 1.4, 19)), "CARD");
+        int kept = sales.createSale(List.of(new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CARD");
+
+        assertEquals(2, sales.voidSales(List.of(a, b, a, 9999)));
+        assertEquals(0, sales.voidSales(List.of(a)));
+        assertEquals(5, stock(sugar), 1e-9);
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(5, CatalogCache.get().findById(sugar).getStockQty(), 1e-9);
+        assertEquals("CANCELLED", sales.getSale(b).status);
+        assertEquals("COMPLETED", sales.getSale(kept).status);
+        assertEquals(3, count("SELECT COUNT(*) FROM stock_movement WHERE type = 'ADJUST' AND reference = 'VOID'"));
+        assertEquals(1, sales.zReport(java.time.LocalDate.now()).sales);
+    }
+
+    @Test
+    void partialReturnsAreRefundedAndTakenOffTheReport() {
+        int id = sales.createSale(List.of(
+                new SaleRepo.SaleItem(sugar, 3, 1.333, 19),
+                new SaleRepo.SaleItem(milk, 2, 1.2, 7)), "CASH");
+        List<SaleRepo.SaleLineDetail> lines = sales.saleDetails(id);
+        int sugarLine = lines.get(0).itemId;
+        int milkLine = lines.get(1).itemId;
+
+        assertEquals(1_333, sales.returnItems(id, Map.of(sugarLine, 1.0)));
+        assertThrows(IllegalArgumentException.class, () -> sales.returnItems(id, Map.of(sugarLine, 2.5)));
+        assertThrows(IllegalArgumentException.class, () -> sales.returnItems(id, Map.of(9999, 1.0)));
+        assertEquals(2_666 + 1_200, sales.returnItems(id, Map.of(sugarLine, 2.0, milkLine, 1.0)));
+
+        assertEquals(5, stock(sugar), 1e-9);
+        assertEquals(1, stock(milk), 1e-9);
+        assertEquals(3, sales.saleDetails(id).get(0).returnedQty, 1e-9);
+        SaleRepo.SaleSummary sale = sales.getSale(id);
+        assertEquals(1_333 + 2_666 + 1_200, sale.returnedGrossMillimes);
+        SaleRepo.ZReport z = sales.zReport(java.time.LocalDate.now());
+        assertEquals(1_200, z.grossMillimes);
+        assertEquals(sale.totalVatMillimes - sale.returnedVatMillimes, z.vatMillimes);
+
+        // Voiding afterwards only gives back what was not returned
+        assertEquals(1, sales.voidSales(List.of(id)));
+        assertEquals(2, stock(milk), 1e-9);
+        assertEquals(5, stock(sugar), 1e-9);
+    }
+
+    @Test
+    void voidsAndReturnsCountOnTheDayTheyHappen() {
+        int returned = sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 2, 1.5, 19)), "CASH");
+        int voided = sales.createSale(List.of(new SaleRepo.SaleItem(milk, 1, 1.2, 7)), "CARD");
+        execute("UPDATE sale SET datetime = datetime('now', '-1 day')");
+        java.time.LocalDate today = java.time.LocalDate.now();
+        SaleRepo.ZReport before = sales.zReport(today.minusDays(1));
+
+        sales.returnItems(returned, Map.of(sales.saleDetails(returned).get(0).itemId, 1.0));
+        sales.voidSales(List.of(voided));
+
+        SaleRepo.ZReport yesterday = sales.zReport(today.minusDays(1));
+        assertEquals(2, yesterday.sales);
+        assertEquals(before.grossMillimes, yesterday.grossMillimes);
+        assertEquals(3_000 + 1_200, yesterday.grossMillimes);
+        SaleRepo.ZReport z = sales.zReport(today);
+        assertEquals(0, z.sales);
+        assertEquals(-1_500, z.cashMillimes);
+        assertEquals(-1_200, z.cardMillimes);
+        assertEquals(-1_500 - 1_200, z.grossMillimes);
+        assertEquals(z.bands.get(0).vatMillimes + z.bands.get(1).vatMillimes, z.vatMillimes);
+    }
+
+    @Test
+    void reportDaysAreLocalDays() {
+        java.util.TimeZone saved = java.util.TimeZone.getDefault();
+        java.util.TimeZone.setDefault(java.util.TimeZone.getTimeZone("Africa/Tunis")); // UTC+1
+        try {
+            sales.createSale(List.of(new SaleRepo.SaleItem(sugar, 1, 1.4, 19)), "CASH");
+            execute("UPDATE sale SET datetime = '2026-03-10 23:30:00'"); // 00:30 on the 11th in Tunis
+            assertEquals(0, sales.zReport(java.time.LocalDate.of(2026, 3, 10)).sales);
+            assertEquals(1, sales.zReport(java.time.LocalDate.of(2026, 3, 11)).sales);
+            java.time.LocalDate day = java.time.LocalDate.of(2026, 3, 11);
+            assertEquals(1, sales.listSales(day, day).size());
+        } finally {
+            java.util.TimeZone.setDefault(saved);
+        }
+    }
+
+    @Test
+    void replayedIdempotencyKeyReturnsTheSaleAlreadyRecorded() throws Exception {
+        List<SaleRepo.SaleItem> items = List.of(new SaleRepo.SaleItem(sugar, 2, 1.4, 19));
+        CompletableFuture<Integer> first = sales.createSaleAsync(items, "CASH", null, "cart-1");
+        CompletableFuture<Integer> doubleClick = sales.createSaleAsync(items, "CASH", null, "cart-1");
+        int id = first.get(5, TimeUnit.SECONDS);
+        assertEquals(id, doubleClick.get(5, TimeUnit.SECONDS));
+        assertEquals(id, sales.createSale(items, "CASH", null, "cart-1")); // retry after a timeout
+
+        // A journaled payment of a cart that was already recorded
+        StockReservations.Cart cart = StockReservations.get().openCart();
+        assertTrue(cart.set(sugar, 2));
+        assertEquals(id, sales.journalSale(items, "CASH", cart, "cart-1").committed.get(5, TimeUnit.SECONDS));
+        assertEquals(0, cart.held(sugar), 1e-9);
+
+        assertEquals(3, stock(sugar), 1e-9);
+        assertEquals(3, CatalogCache.get().findById(sugar).getStockQty(), 1e-9);
+        assertEquals(1, count("SELECT COUNT(*) FROM sale"));
+        assertTrue(sales.createSale(items, "CASH", null, "cart-2") != id);
+        assertEquals(1, stock(sugar), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> sales.createSale(items, "CASH", null, " "));
+    }
+
+    private int count(String sql) {
+        try (Connection conn = Database.getConnection();
+                Statement st = conn.createStatement();
+                ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void execute(String sql) {
+        try (Connection conn = Database.getConnection();
+                Statement st = conn.createStatement()) {
+            st.executeUpdate(sql);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int insert(String name, double stock) {
+        Product p = new Product();
+        p.setName(name);
+        p.setPriceGross(1);
+        p.setVatRate(19);
+        p.setStockQty(stock);
+        products.insert(p);
+        return p.getId();
+    }
+
+    private double stock(int id) {
+        return products.findChangedSince(0).products.stream().filter(p -> p.getId() == id).findFirst().get()
+                .getStockQty();
+    }
+}
@@ -0,0 +1,144 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+public class AutocompleteServiceTest {
+    @TempDir
+    Path dir;
+
+    // Substring search over a fixed list, counting how often it is asked
+    private static class FakeRepo extends ProductRepo {
+        final List<Product> products = new ArrayList<>();
+        final List<String> queries = new CopyOnWriteArrayList<>();
+        volatile CountDownLatch gate;
+
+        FakeRepo(String... names) {
+            super(SearchMode.INDEX);
+            int id = 1;
+            for (String n : names) {
+                Product p = new Product();
+                p.setId(id++);
+                p.setName(n);
+                products.add(p);
+            }
+        }
+
+        @Override
+        public List<Product> searchByQuery(String q, int limit) {
+            queries.add(q);
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return products.stream().filter(p -> TrigramIndex.rank(p.getName(), null, q) >= 0)
+                    .sorted(Comparator.<Product>comparingInt(p -> TrigramIndex.rank(p.getName(), null, q))
+                            .thenComparing(Product::getName))
+                    .limit(limit).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void extendedQueriesAreNarrowedFromTheCachedSuperset() {
+        FakeRepo repo = new FakeRepo("Lait entier", "Lait demi-écrémé", "Chocolat au lait", "Laitue", "Sucre");
+        AutocompleteService ac = new AutocompleteService(repo, Runnable::run);
+
+        assertEquals(List.of("Lait demi-écrémé", "Lait entier", "Laitue", "Chocolat au lait"),
+                names(ac.lookup("lai", 10)));
+        assertEquals(List.of("Lait demi-écrémé", "Lait entier", "Laitue", "Chocolat au lait"),
+                names(ac.lookup("lait", 10)));
+        assertEquals(List.of("Lait entier"), names(ac.lookup("Lait ent", 10)));
+        assertEquals(List.of("lai"), repo.queries);
+
+        ac.lookup("lai", 10); // exact hit
+        ac.lookup("su", 10);  // too short to narrow from anything
+        assertEquals(List.of("lai", "su"), repo.queries);
+    }
+
+    @Test
+    void catalogChangesDropCachedResults() {
+        FakeRepo repo = new FakeRepo("Sucre blanc");
+        AutocompleteService ac = new AutocompleteService(repo, Runnable::run);
+        ac.lookup("sucre", 10);
+        CatalogCache.get().invalidateAll();
+        ac.lookup("sucre", 10);
+        assertEquals(List.of("sucre", "sucre"), repo.queries);
+    }
+
+    @Test
+    void stockMovesDropCachedResults() {
+        Database.init(dir.resolve("pos.db").toString());
+        try {
+            Product sugar = new Product();
+            sugar.setName("Sucre blanc");
+            sugar.setPriceGross(1);
+            sugar.setStockQty(5);
+            sugar.setActive(true);
+            new ProductRepo().insert(sugar);
+            FakeRepo repo = new FakeRepo("Sucre blanc");
+            AutocompleteService ac = new AutocompleteService(repo, Runnable::run);
+            CatalogCache.get().findById(sugar.getId()); // loaded, so stock moves reach it
+            ac.lookup("sucre", 10);
+            CatalogCache.get().adjustStock(sugar.getId(), -1);
+            ac.lookup("sucre", 10);
+            assertEquals(List.of("sucre", "sucre"), repo.queries);
+        } finally {
+            Database.shutdown();
+            CatalogCache.get().invalidateAll();
+        }
+    }
+
+    @Test
+    void eachServiceKeepsItsOwnCache() {
+        FakeRepo repo = new FakeRepo("Sucre blanc");
+        AutocompleteService register = new AutocompleteService(repo, Runnable::run);
+        register.lookup("sucre", 10);
+        register.lookup("sucre", 10);
+        new AutocompleteService(repo, Runnable::run).lookup("sucre", 10);
+        assertEquals(List.of("sucre", "sucre"), repo.queries);
+        assertEquals(0.5, register.hitRate(), 1e-9);
+    }
+
+    @Test
+    void supersededLookupsAreNeverDelivered() throws Exception {
+        FakeRepo repo = new FakeRepo("Harissa", "Huile");
+        repo.gate = new CountDownLatch(1);
+        AutocompleteService ac = new AutocompleteService(repo, Runnable::run);
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        ac.suggest("har", 10, r -> delivered.add("har:" + names(r)));
+        ac.suggest("hui", 10, r -> {
+            delivered.add("hui:" + names(r));
+            done.countDown();
+        });
+        repo.gate.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("hui:[Huile]"), delivered);
+    }
+
+    private static List<String> names(List<Product> list) {
+        return list.stream().map(Product::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,58 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class BarcodeIndexTest {
+    @Test
+    void normalizesValidGtinsAndRejectsBadCheckDigits() {
+        assertEquals(6191234567897L, BarcodeIndex.normalize("6191234567897"));
+        assertEquals(96385074L, BarcodeIndex.normalize("96385074"));
+        // UPC-A and its EAN-13 form share one key
+        assertEquals(BarcodeIndex.normalize("036000291452"), BarcodeIndex.normalize("0036000291452"));
+        assertEquals(-1L, BarcodeIndex.normalize("6191234567890"));
+        assertEquals(-1L, BarcodeIndex.normalize("61300001"));
+        assertEquals(-1L, BarcodeIndex.normalize("ABC-123"));
+    }
+
+    @Test
+    void resolvesNumericAndFallbackCodes() {
+        BarcodeIndex idx = new BarcodeIndex(4);
+        idx.putIfAbsent("6191234567897", 1);
+        idx.putIfAbsent("036000291452", 2);
+        idx.putIfAbsent("61300001", 3); // invalid check digit: kept as text
+        idx.putIfAbsent("6191234567897", 9); // first mapping wins
+
+        assertEquals(1, idx.get("6191234567897"));
+        assertEquals(2, idx.get("0036000291452"));
+        assertEquals(3, idx.get("61300001"));
+        assertEquals(BarcodeIndex.NOT_FOUND, idx.get("96385074"));
+        assertEquals(3, idx.size());
+    }
+
+    @Test
+    void survivesGrowthAndRemovals() {
+        BarcodeIndex idx = new BarcodeIndex(2);
+        String[] codes = new String[5000];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = ean13("619" + String.format("%09d", i * 7919L));
+            idx.putIfAbsent(codes[i], i);
+        }
+        for (int i = 0; i < codes.length; i += 2)
+            idx.remove(codes[i], i);
+        idx.remove(codes[1], 12345); // wrong id: ignored
+        for (int i = 0; i < codes.length; i++)
+            assertEquals(i % 2 == 0 ? BarcodeIndex.NOT_FOUND : i, idx.get(codes[i]), codes[i]);
+        assertEquals(codes.length / 2, idx.size());
+    }
+
+    private static String ean13(String first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int d = first12.charAt(i) - '0';
+            sum += (i % 2 == 0) ? d : d * 3;
+        }
+        return first12 + (10 - sum % 10) % 10;
+    }
+}
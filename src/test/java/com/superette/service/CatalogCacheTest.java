@@ -0,0 +1,189 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+public class CatalogCacheTest {
+    @TempDir
+    Path dir;
+
+    private final List<Product> catalog = new ArrayList<>(List.of(product(1, "Sucre 1kg", "111", 5),
+            product(2, "Lait 1L", "222", 2)));
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<Long> reads = new ArrayList<>();
+    // The catalog as the database would return it; row_version = position in the list
+    private final CatalogCache cache = new CatalogCache(new ProductRepo(ProductRepo.SearchMode.INDEX) {
+        @Override
+        public Changes findChangedSince(long version) {
+            if (version < 0)
+                loads.incrementAndGet();
+            reads.add(version);
+            List<Product> copies = new ArrayList<>();
+            for (int i = (int) Math.max(version, 0); i < catalog.size(); i++)
+                copies.add(catalog.get(i).copy());
+            return new Changes(copies, Math.max(version, catalog.size()));
+        }
+    });
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void lookupsHandOutCopies() {
+        Product sugar = cache.findById(1);
+        sugar.setName("Changed");
+        sugar.setStockQty(99);
+        assertEquals("Sucre 1kg", cache.findById(1).getName());
+        assertEquals(5, cache.findByBarcodeOrName("111").getStockQty(), 1e-9);
+        cache.search("sucre", 5).get(0).setPriceGross(0);
+        assertEquals(1.0, cache.findById(1).getPriceGross(), 1e-9);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void writesReplaceAndReindexCachedProducts() {
+        cache.adjustStock(2, -1); // not loaded yet: nothing to adjust, the load reads the database
+        assertEquals(2, cache.findById(2).getStockQty(), 1e-9);
+        cache.adjustStock(2, -1.5);
+        assertEquals(0.5, cache.findById(2).getStockQty(), 1e-9);
+        cache.adjustStock(2, -1);
+        assertEquals(0, cache.findById(2).getStockQty(), 1e-9); // never below zero, like the column
+
+        Product renamed = product(1, "Sucre roux 1kg", "333", 5);
+        long version = cache.version();
+        cache.put(renamed);
+        renamed.setName("Not cached");
+        assertEquals(version + 1, cache.version());
+        assertNull(cache.findByBarcodeOrName("111"));
+        assertNull(cache.findByBarcodeOrName("Sucre 1kg"));
+        assertEquals(1, cache.findByBarcodeOrName("333").getId());
+        assertEquals("Sucre roux 1kg", cache.findByBarcodeOrName("Sucre roux 1kg").getName());
+
+        cache.invalidateAll();
+        assertEquals("Sucre 1kg", cache.findById(1).getName()); // reloaded
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void syncPicksUpRowsChangedElsewhere() {
+        cache.sync(); // not loaded: nothing to bring up to date
+        assertEquals(List.of(), reads);
+        assertEquals(5, cache.findById(1).getStockQty(), 1e-9);
+
+        // Another register reprices sugar and sells some of it
+        Product sugar = product(1, "Sucre 1kg", "111", 4);
+        sugar.setPriceGross(1.5);
+        catalog.add(sugar);
+        long version = cache.version();
+        cache.sync();
+        assertEquals(1.5, cache.findByBarcodeOrName("111").getPriceGross(), 1e-9);
+        assertEquals(4, cache.findById(1).getStockQty(), 1e-9);
+        assertTrue(cache.version() > version);
+
+        // Each round reads again from where the one before started
+        cache.sync();
+        cache.sync();
+        assertEquals(List.of(-1L, 2L, 2L, 3L), reads);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void sqlSearchModesKeepTheCatalogOffTheHeap() {
+        AtomicInteger rowVersion = new AtomicInteger(7);
+        CatalogCache sqlOnly = new CatalogCache(new ProductRepo(ProductRepo.SearchMode.FTS) {
+            @Override
+            public Changes findChangedSince(long version) {
+                loads.incrementAndGet();
+                return new Changes(List.of(), version);
+            }
+
+            @Override
+            public long currentVersion() {
+                return rowVersion.get();
+            }
+        });
+        assertNull(sqlOnly.findById(1));
+        assertNull(sqlOnly.findByBarcodeOrName("111"));
+        assertTrue(sqlOnly.search("sucre", 5).isEmpty());
+        long version = sqlOnly.version();
+        sqlOnly.resolved(product(1, "Sucre 1kg", "111", 5)); // a lookup answered by SQL: nothing changed
+        assertEquals(version, sqlOnly.version());
+        sqlOnly.put(product(1, "Sucre roux 1kg", "111", 5));
+        sqlOnly.adjustStock(1, -1);
+        assertEquals(version + 2, sqlOnly.version());
+        assertNull(sqlOnly.findById(1));
+
+        sqlOnly.sync();
+        version = sqlOnly.version();
+        sqlOnly.sync();
+        assertEquals(version, sqlOnly.version());
+        rowVersion.incrementAndGet(); // another register changed a product
+        sqlOnly.sync();
+        assertEquals(version + 1, sqlOnly.version());
+        assertEquals(0, sqlOnly.size());
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void anotherRegistersPriceChangeReachesTheCache() throws Exception {
+        Database.init(dir.resolve("shared.db").toString());
+        Product p = product(0, "Huile 1L", "444", 3);
+        p.setId(null);
+        new ProductRepo().insert(p);
+        assertEquals(1.0, CatalogCache.get().findByBarcodeOrName("444").getPriceGross(), 1e-9);
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("shared.db"));
+                Statement st = conn.createStatement()) {
+            st.executeUpdate("UPDATE product SET price_gross = 4.25, active = 0 WHERE barcode = '444'");
+        }
+        CatalogCache.get().sync();
+        Product oil = CatalogCache.get().findByBarcodeOrName("444");
+        assertEquals(4.25, oil.getPriceGross(), 1e-9);
+        assertFalse(oil.isActive());
+        assertTrue(CatalogCache.get().search("huile", 5).isEmpty());
+    }
+
+    @Test
+    void openingAnotherDatabaseResetsTheCache() {
+        Database.init(dir.resolve("a.db").toString());
+        Product p = product(0, "Huile 1L", null, 3);
+        p.setId(null);
+        new ProductRepo().insert(p);
+        assertEquals("Huile 1L", CatalogCache.get().findById(p.getId()).getName());
+
+        Database.init(dir.resolve("b.db").toString());
+        assertNull(CatalogCache.get().findById(p.getId()));
+    }
+
+    private static Product product(int id, String name, String barcode, double stock) {
+        Product p = new Product();
+        p.setId(id);
+        p.setName(name);
+        p.setBarcode(barcode);
+        p.setPriceGross(1);
+        p.setVatRate(19);
+        p.setStockQty(stock);
+        p.setActive(true);
+        return p;
+    }
+}
@@ -0,0 +1,120 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+public class CatalogImportServiceTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("import.db").toString());
+        CatalogCache.get().invalidateAll();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void upsertsByBarcodeAndReportsRejectedRows() throws Exception {
+        ProductRepo repo = new ProductRepo();
+        Product existing = new Product();
+        existing.setName("Sucre 1kg");
+        existing.setBarcode("6191234567897");
+        existing.setPriceGross(1.2);
+        existing.setVatRate(19);
+        existing.setStockQty(5);
+        repo.insert(existing);
+
+        Path csv = write("name,barcode,price,vat,stock\n" +
+                "Sucre blanc 1kg,6191234567897,1.35,7,100\n" +
+                "\"Lait \"\"Vitalait\"\" 1L\",61300002,1.2,,12\n" +
+                "Sans prix,61300003,,19,1\n" +
+                "Eau 1.5L,,0.65,19,24\n" +
+                "Prix négatif,61300004,-1,19,1\n");
+
+        CatalogImportService.Result r = new CatalogImportService().importCsv(csv, 19, null);
+
+        assertEquals(5, r.rowsRead);
+        assertEquals(2, r.inserted);
+        assertEquals(1, r.updated);
+        assertEquals(2, r.rejectedCount);
+        assertEquals(4, r.rejected.get(0).line);
+        assertEquals(6, r.rejected.get(1).line);
+
+        Product sugar = repo.findByBarcodeOrName("6191234567897");
+        assertEquals("Sucre blanc 1kg", sugar.getName());
+        assertEquals(1.35, sugar.getPriceGross(), 1e-9);
+        assertEquals(7, sugar.getVatRate(), 1e-9);
+        assertEquals(5, sugar.getStockQty(), 1e-9); // stock is never overwritten by an import
+        Product milk = repo.findByBarcodeOrName("61300002");
+        assertEquals("Lait \"Vitalait\" 1L", milk.getName());
+        assertEquals(19, milk.getVatRate(), 1e-9);
+        assertEquals(12, milk.getStockQty(), 1e-9);
+        assertEquals(0.65, repo.findByBarcodeOrName("Eau 1.5L").getPriceGross(), 1e-9);
+        assertNull(repo.findByBarcodeOrName("61300003"));
+    }
+
+    @Test
+    void readsSemicolonFilesWithFrenchHeadersAndDecimalCommas() throws Exception {
+        Path csv = write("\uFEFFDésignation;Code-barres;Prix TTC;TVA;Actif\r\n" +
+                "\"Huile; 1L\";61300010;4,250;19;non\r\n" +
+                "Thon 160g;61300011;3,9;19;1\r\n");
+
+        CatalogImportService.Result r = new CatalogImportService().importCsv(csv, 19, null);
+
+        assertEquals(2, r.inserted);
+        assertEquals(0, r.rejectedCount);
+        ProductRepo repo = new ProductRepo();
+        Product oil = repo.findByBarcodeOrName("61300010");
+        assertEquals("Huile; 1L", oil.getName());
+        assertEquals(4.25, oil.getPriceGross(), 1e-9);
+        assertFalse(oil.isActive());
+        assertEquals(3.9, repo.findByBarcodeOrName("61300011").getPriceGross(), 1e-9);
+    }
+
+    @Test
+    void importingTheSameFileAgainUpdatesInsteadOfDuplicating() throws Exception {
+        Path csv = write("name,barcode,price,stock\n" +
+                "Eau 1.5L,,0.65,24\n" +
+                "Pain,,0.2,50\n" +
+                "Pain,,0.25,60\n" +
+                "Thon 160g,61300011,3.9,10\n");
+
+        CatalogImportService.Result first = new CatalogImportService().importCsv(csv, 19, null);
+        CatalogImportService.Result again = new CatalogImportService().importCsv(csv, 19, null);
+
+        assertEquals(3, first.inserted);
+        assertEquals(0, again.inserted);
+        assertEquals(3, again.updated);
+        ProductRepo repo = new ProductRepo();
+        assertEquals(3, repo.countAll());
+        Product bread = repo.findByBarcodeOrName("Pain");
+        assertEquals(0.25, bread.getPriceGross(), 1e-9); // later row wins
+        assertEquals(60, bread.getStockQty(), 1e-9);
+    }
+
+    private Path write(String content) throws Exception {
+        Path p = dir.resolve("catalog.csv");
+        Files.writeString(p, content, StandardCharsets.UTF_8);
+        return p;
+    }
+}
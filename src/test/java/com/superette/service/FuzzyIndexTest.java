@@ -0,0 +1,69 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class FuzzyIndexTest {
+    @Test
+    void foldsAccentsAndSpellingVariants() {
+        assertArrayEquals(new String[] { "creme", "brule" }, FuzzyIndex.tokens("Crème brûlée"));
+        assertArrayEquals(new String[] { "chorba", "chorba" }, FuzzyIndex.tokens("Chorba / Shorba"));
+        assertArrayEquals(new String[] { "cuscus", "1kg" }, FuzzyIndex.tokens("Couscous 1kg"));
+        assertEquals(FuzzyIndex.fold("Harissa"), FuzzyIndex.fold("harisa"));
+    }
+
+    @Test
+    void findsMisspelledNamesWithinTheBudget() {
+        FuzzyIndex idx = new FuzzyIndex();
+        idx.put(1, "Chocolat noir 100g");
+        idx.put(2, "Chocolat au lait 100g");
+        idx.put(3, "Café moulu 250g");
+        idx.put(4, "Harissa Le Phare du Cap Bon");
+
+        assertEquals(List.of(2, 1), idx.search("chocolta", 10));      // transposition = 2 edits
+        assertEquals(List.of(1), idx.search("chocola noir", 10));
+        assertEquals(List.of(3), idx.search("cafe mulu", 10));
+        assertEquals(List.of(4), idx.search("harisa", 10));
+        assertEquals(List.of(1), idx.search("chocolat nor", 10));       // unfinished last word
+        assertTrue(idx.search("xylophone", 10).isEmpty());
+        assertEquals(List.of(3), idx.search("cofe", 10));
+    }
+
+    @Test
+    void exactMatchesRankFirstAndRemovalsAreReflected() {
+        FuzzyIndex idx = new FuzzyIndex();
+        idx.put(1, "Lait entier");
+        idx.put(2, "Laid entier");
+        assertEquals(List.of(1, 2), idx.search("lait entier", 10));
+
+        idx.remove(1);
+        assertEquals(List.of(2), idx.search("lait entier", 10));
+        idx.put(2, "Jus d'orange");
+        assertTrue(idx.search("lait entier", 10).isEmpty());
+        assertEquals(1, idx.size());
+    }
+
+    @Test
+    void wordsNoLongerUsedAreDropped() {
+        FuzzyIndex idx = new FuzzyIndex();
+        for (int id = 1; id <= 200; id++)
+            idx.put(id, "Article " + id + " lot" + id + " ref" + (char) ('a' + id % 26) + (char) ('a' + id / 26));
+        // Renamed in place: every old lot/ref word goes unused
+        for (int id = 1; id <= 200; id++)
+            idx.put(id, "Article " + id);
+        assertEquals(201, idx.vocabularySize()); // "article" plus the 200 numbers
+        assertTrue(idx.treeSize() <= 66, "dead ref words pruned, tree has " + idx.treeSize()); // "article" + < 65 dead
+        assertTrue(idx.search("refab", 10).isEmpty());
+        assertEquals(List.of(5), idx.search("artcle 5", 1));
+
+        idx.put(7, "Chocolat noir");
+        idx.remove(7);
+        assertEquals(200, idx.vocabularySize());
+        assertTrue(idx.search("chocolat", 10).isEmpty());
+    }
+}
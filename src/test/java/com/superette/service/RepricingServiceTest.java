@@ -0,0 +1,90 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+
+public class RepricingServiceTest {
+    @TempDir
+    Path dir;
+
+    private final ProductRepo repo = new ProductRepo();
+    private final RepricingService service = new RepricingService();
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("reprice.db").toString());
+        CatalogCache.get().invalidateAll();
+        repo.insert(product("Lait entier 1L", "61300001", 1.29, 7));
+        repo.insert(product("Lait demi-écrémé 1L", "61300002", 1.25, 7));
+        repo.insert(product("Sucre 1kg", "61300003", 1.40, 19));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void previewMatchesWhatApplyWrites() {
+        RepricingService.Selection sel = new RepricingService.Selection();
+        sel.nameFilter = "lait";
+        RepricingService.Rule rule = new RepricingService.Rule();
+        rule.percent = 10;
+        rule.roundTo = RepricingService.STEP_5_MILLIMES;
+
+        RepricingService.Preview preview = service.preview(sel, rule, 50);
+        assertEquals(2, preview.changed);
+        assertEquals(1.375, preview.lines.get(0).newPrice, 1e-9); // 1.25 * 1.1 = 1.375
+        assertEquals(1.42, preview.lines.get(1).newPrice, 1e-9);  // 1.419 -> 1.420
+
+        assertEquals(2, service.apply(sel, rule));
+        assertEquals(1.375, repo.findByBarcodeOrName("61300002").getPriceGross(), 1e-9);
+        assertEquals(1.42, repo.findByBarcodeOrName("61300001").getPriceGross(), 1e-9);
+        assertEquals(1.40, repo.findByBarcodeOrName("61300003").getPriceGross(), 1e-9);
+    }
+
+    @Test
+    void vatChangeCanKeepNetPricesAndSkipsUnchangedRows() {
+        RepricingService.Selection sel = new RepricingService.Selection();
+        sel.barcodes = List.of("61300003", "61300002", "unknown");
+        RepricingService.Rule rule = new RepricingService.Rule();
+        rule.newVatRate = 7.0;
+        rule.keepNetPrice = true;
+
+        // Only the 19% product changes: 1.40 / 1.19 * 1.07 = 1.2588 -> 1.259
+        assertEquals(1, service.apply(sel, rule));
+        Product sugar = repo.findByBarcodeOrName("61300003");
+        assertEquals(7, sugar.getVatRate(), 1e-9);
+        assertEquals(1.259, sugar.getPriceGross(), 1e-9);
+        assertEquals(1.25, repo.findByBarcodeOrName("61300002").getPriceGross(), 1e-9);
+    }
+
+    @Test
+    void refusesAnEmptySelection() {
+        RepricingService.Rule rule = new RepricingService.Rule();
+        rule.percent = 5;
+        assertThrows(IllegalArgumentException.class, () -> service.apply(new RepricingService.Selection(), rule));
+    }
+
+    private static Product product(String name, String barcode, double price, double vat) {
+        Product p = new Product();
+        p.setName(name);
+        p.setBarcode(barcode);
+        p.setPriceGross(price);
+        p.setVatRate(vat);
+        return p;
+    }
+}
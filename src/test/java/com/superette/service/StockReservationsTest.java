@@ -0,0 +1,84 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class StockReservationsTest {
+    private final Map<Integer, Double> stock = new HashMap<>();
+    private final AtomicLong now = new AtomicLong();
+    private final StockReservations ledger = new StockReservations(id -> stock.getOrDefault(id, 0.0), 60_000,
+            now::get);
+
+    @Test
+    void cartsCannotClaimMoreThanIsInStock() {
+        stock.put(1, 3.0);
+        StockReservations.Cart a = ledger.openCart();
+        StockReservations.Cart b = ledger.openCart();
+
+        assertTrue(a.set(1, 2));
+        assertFalse(b.set(1, 2));
+        assertEquals(0, b.held(1), 1e-9);
+        assertTrue(b.set(1, 1));
+        assertEquals(0, ledger.available(1), 1e-9);
+
+        assertTrue(a.set(1, 0.5)); // lowering a line gives the rest back
+        assertEquals(1.5, ledger.available(1), 1e-9);
+        assertTrue(a.covers(Map.of(1, 0.5)));
+        assertFalse(a.covers(Map.of(1, 0.6)));
+
+        a.releaseAll();
+        assertEquals(2, ledger.available(1), 1e-9);
+    }
+
+    @Test
+    void idleCartsExpire() {
+        stock.put(7, 1.0);
+        StockReservations.Cart idle = ledger.openCart();
+        StockReservations.Cart busy = ledger.openCart();
+        stock.put(8, 1.0);
+        assertTrue(idle.set(7, 1));
+        now.set(50_000);
+        assertTrue(busy.set(8, 0.3));
+
+        now.set(90_000);
+        assertEquals(1, ledger.sweep());
+        assertEquals(1, ledger.available(7), 1e-9);
+        assertEquals(0, idle.held(7), 1e-9);
+        assertEquals(0.7, ledger.available(8), 1e-9);
+    }
+
+    @Test
+    void concurrentScansNeverOversell() throws Exception {
+        stock.put(1, 10.0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> scans = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                StockReservations.Cart c = ledger.openCart();
+                scans.add(() -> c.set(1, 0.5));
+            }
+            int granted = 0;
+            for (Future<Boolean> f : pool.invokeAll(scans)) {
+                if (f.get())
+                    granted++;
+            }
+            assertEquals(20, granted);
+            assertEquals(0, ledger.available(1), 1e-9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.superette.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TrigramIndexTest {
+    @Test
+    void ranksPrefixBeforeWordStartBeforeSubstring() {
+        TrigramIndex idx = new TrigramIndex();
+        idx.put(1, "Sugar 1kg", "61300001");
+        idx.put(2, "Brown Sugar 500g", null);
+        idx.put(3, "Sugarless gum", null);
+        idx.put(4, "Milk 1L", "61300002");
+
+        assertEquals(List.of(1, 3, 2), idx.search("sug", 10));
+        assertEquals(List.of(2), idx.search("ugar 5", 10));
+        assertEquals(List.of(4, 1), idx.search("613000", 10));
+        assertEquals(List.of(4), idx.search("m", 10));
+        assertEquals(List.of(2), idx.search("br", 10));
+        assertTrue(idx.search("xyz", 10).isEmpty());
+    }
+
+    @Test
+    void updatesAndRemovalsAreReflected() {
+        TrigramIndex idx = new TrigramIndex();
+        idx.put(1, "Tomato paste", null);
+        idx.put(2, "Tomato juice", null);
+        assertEquals(List.of(2, 1), idx.search("tomato", 10));
+
+        idx.put(2, "Orange juice", null);
+        idx.remove(1);
+        assertTrue(idx.search("tomato", 10).isEmpty());
+        assertEquals(List.of(2), idx.search("juice", 1));
+        assertEquals(1, idx.size());
+    }
+
+    @Test
+    void honoursLimitOnLargeCatalogs() {
+        TrigramIndex idx = new TrigramIndex();
+        for (int i = 1; i <= 20_000; i++)
+            idx.put(i, "Product " + i + (i % 100 == 0 ? " lait" : ""), String.valueOf(6_190_000_000_000L + i));
+        List<Integer> hits = idx.search("lait", 10);
+        assertEquals(10, hits.size());
+        assertEquals(List.of(100), idx.search("product 100 lait", 10));
+    }
+}
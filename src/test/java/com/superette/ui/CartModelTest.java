@@ -0,0 +1,72 @@
+package com.superette.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.superette.model.Product;
+import com.superette.model.VatCalculator;
+
+public class CartModelTest {
+    @Test
+    void scansOfTheSameProductShareOneLine() {
+        CartModel cart = new CartModel();
+        Product sugar = product(1, 1.415, 19);
+        CartModel.Line line = cart.add(sugar, 2);
+        assertSame(line, cart.add(sugar, 1));
+        assertEquals(1, cart.size());
+        assertEquals(3, cart.qty(1), 1e-9);
+        assertEquals(4245, line.getLineGross());
+        assertEquals(4245, cart.gross());
+
+        cart.remove(1);
+        assertNull(cart.line(1));
+        assertEquals(0, cart.gross());
+        assertEquals(0, cart.vat());
+    }
+
+    @Test
+    void runningTotalsMatchAFullRecomputeOnABigBasket() {
+        CartModel cart = new CartModel();
+        Random rnd = new Random(42);
+        Product[] products = new Product[300];
+        for (int i = 0; i < products.length; i++)
+            products[i] = product(i + 1, (1 + rnd.nextInt(20_000)) / 1000.0, new double[] { 0, 7, 13, 19 }[i % 4]);
+
+        for (int step = 0; step < 5_000; step++) {
+            Product p = products[rnd.nextInt(products.length)];
+            switch (rnd.nextInt(4)) {
+                case 0:
+                case 1:
+                    cart.add(p, 1 + rnd.nextInt(3));
+                    break;
+                case 2:
+                    if (cart.line(p.getId()) != null)
+                        cart.setQty(cart.line(p.getId()), rnd.nextInt(5000) / 1000.0 + 0.001);
+                    break;
+                default:
+                    cart.remove(p.getId());
+            }
+        }
+
+        VatCalculator full = new VatCalculator();
+        for (CartModel.Line l : cart.lines())
+            full.add(l.getUnitGross(), l.getQty(), l.getProduct().getVatRate());
+        assertEquals(full.gross(), cart.gross());
+        assertEquals(full.vat(), cart.vat());
+        assertEquals(cart.gross(), cart.grossProperty().get());
+    }
+
+    private static Product product(int id, double price, double vat) {
+        Product p = new Product();
+        p.setId(id);
+        p.setName("P" + id);
+        p.setPriceGross(price);
+        p.setVatRate(vat);
+        return p;
+    }
+}
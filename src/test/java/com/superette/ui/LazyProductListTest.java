@@ -0,0 +1,94 @@
+package com.superette.ui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.superette.db.Database;
+import com.superette.model.Product;
+import com.superette.repo.ProductRepo;
+import com.superette.service.CatalogCache;
+
+public class LazyProductListTest {
+    @TempDir
+    Path dir;
+
+    private final ProductRepo repo = new ProductRepo();
+    private LazyProductList list;
+    private long version;
+
+    @BeforeEach
+    void setUp() {
+        Database.init(dir.resolve("lazy.db").toString());
+        CatalogCache.get().invalidateAll();
+        // P0001..P0500: three pages, of which only the first gets loaded
+        execute("INSERT INTO product(name, price_gross, vat_rate) WITH RECURSIVE n(i) AS " +
+                "(SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < 500) SELECT printf('P%04d', i), 1, 19 FROM n");
+        list = new LazyProductList(repo);
+        list.reload();
+        version = repo.currentVersion();
+        assertEquals(500, list.size());
+        assertEquals("P0001", list.get(0).getName());
+    }
+
+    @AfterEach
+    void tearDown() {
+        Database.shutdown();
+        CatalogCache.get().invalidateAll();
+    }
+
+    @Test
+    void changesThatMoveNothingArePatchedInPlace() {
+        execute("UPDATE product SET price_gross = 2 WHERE name IN ('P0005', 'P0300')");
+        assertTrue(list.patch(changes()));
+        assertEquals(2, list.get(4).getPriceGross(), 1e-9);
+
+        // Renamed but still between its neighbours, outside the cached page
+        execute("UPDATE product SET name = 'P0300b' WHERE name = 'P0300'");
+        assertTrue(list.patch(changes()));
+    }
+
+    @Test
+    void changesThatMoveRowsNeedAReload() {
+        execute("UPDATE product SET name = 'P0005z' WHERE name = 'P0005'"); // cached row renamed
+        assertFalse(list.patch(changes()));
+        list.reload();
+        list.get(0);
+        version = repo.currentVersion();
+
+        execute("UPDATE product SET name = 'A' WHERE name = 'P0300'"); // uncached row moves to the top
+        assertFalse(list.patch(changes()));
+        list.reload();
+        list.get(0);
+        version = repo.currentVersion();
+
+        execute("INSERT INTO product(name, price_gross, vat_rate) VALUES('Z', 1, 19)");
+        assertFalse(list.patch(changes()));
+    }
+
+    private List<Product> changes() {
+        ProductRepo.Changes c = repo.findChangedSince(version);
+        version = c.version;
+        return c.products;
+    }
+
+    private static void execute(String sql) {
+        try (Connection conn = Database.getConnection();
+                Statement st = conn.createStatement()) {
+            st.executeUpdate(sql);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}